@@ -0,0 +1,136 @@
+package com.noajoliver;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * FailureCappingHandler sits between the Schematron transformation and the SVRL serializer and aborts the
+ * transformation once a file has produced a given number of failed assertions.
+ * The SVRL passed on stays well-formed: after the limit it only waits for the next svrl:fired-rule, which
+ * parseSvrlContent uses to classify the last assertions as errors or warnings, then closes every open element.
+ */
+class FailureCappingHandler extends XMLFilterImpl {
+
+    private static final String SVRL_NS = "http://purl.oclc.org/dsdl/svrl";
+
+    private final int maxFailures;
+    private final Deque<String[]> openElements = new ArrayDeque<>();
+    private int failures;
+    private int suppressedDepth;
+    private boolean suppressedElements;
+    private boolean limitReached;
+
+    /**
+     * Constructor to create a new FailureCappingHandler object.
+     *
+     * @param downstream  The handler receiving the capped SVRL, normally a Serializer's ContentHandler.
+     * @param maxFailures The number of failed assertions after which the transformation is aborted.
+     */
+    FailureCappingHandler(ContentHandler downstream, int maxFailures) {
+        this.maxFailures = maxFailures;
+        setContentHandler(downstream);
+    }
+
+    /**
+     * Returns whether the transformation was aborted because the failure limit was reached.
+     * A document whose last failed assertion is the limit is not capped, since nothing was left out.
+     *
+     * @return true if the SVRL was capped.
+     */
+    boolean isLimitReached() {
+        return limitReached;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        if (limitReached) {
+            if (suppressedDepth == 0 && SVRL_NS.equals(uri) && "fired-rule".equals(localName)) {
+                super.startElement(uri, localName, qName, atts);
+                super.endElement(uri, localName, qName);
+                closeAndAbort();
+            }
+            suppressedDepth++;
+            suppressedElements = true;
+            return;
+        }
+        openElements.push(new String[]{uri, localName, qName});
+        super.startElement(uri, localName, qName, atts);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (limitReached) {
+            if (suppressedDepth > 0) {
+                suppressedDepth--;
+                return;
+            }
+            if (openElements.size() == 1 && !suppressedElements) {
+                // The SVRL ends right after the last allowed failure, so it is complete after all
+                limitReached = false;
+            } else {
+                // The end of the enclosing element was reached without another fired rule
+                closeAndAbort();
+            }
+        }
+        openElements.pop();
+        super.endElement(uri, localName, qName);
+
+        if (SVRL_NS.equals(uri) && "failed-assert".equals(localName) && ++failures >= maxFailures) {
+            limitReached = true;
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (!limitReached) {
+            super.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        if (!limitReached) {
+            super.ignorableWhitespace(ch, start, length);
+        }
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+        if (!limitReached) {
+            super.processingInstruction(target, data);
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        if (!limitReached) {
+            super.startPrefixMapping(prefix, uri);
+        }
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException {
+        if (!limitReached) {
+            super.endPrefixMapping(prefix);
+        }
+    }
+
+    /**
+     * Closes every element still open downstream, ends the document and aborts the transformation.
+     *
+     * @throws SAXException Always, to stop the transformation.
+     */
+    private void closeAndAbort() throws SAXException {
+        while (!openElements.isEmpty()) {
+            String[] element = openElements.pop();
+            super.endElement(element[0], element[1], element[2]);
+        }
+        super.endDocument();
+        throw new SAXException("Stopped after " + maxFailures + " failed assertions");
+    }
+}
@@ -0,0 +1,442 @@
+package com.noajoliver;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.ini4j.Ini;
+import org.ini4j.Profile;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JdbcResultSink writes validation results to a relational database using batched prepared-statement inserts.
+ * The validation threads only queue their results; a single writer thread gathers whole files until about
+ * batch_size rows are pending and writes them in one transaction, so the database sees a few large batches
+ * instead of several round trips per file. A group that fails is retried one file per transaction, so a file
+ * is still either fully recorded or not at all.
+ * Every row carries a run_id so that the tables can accumulate the results of many runs.
+ *
+ * <p>The sink is configured from the [database] section of an INI file:</p>
+ * <pre>
+ * [database]
+ * enabled = true
+ * url = jdbc:postgresql://localhost/validation
+ * username = validator
+ * password = secret
+ * pool_size = 12
+ * batch_size = 500
+ * table_prefix = validation_
+ * create_tables = true
+ * </pre>
+ */
+class JdbcResultSink implements ResultSink {
+
+    private static final int DEFAULT_POOL_SIZE = 12;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final String DEFAULT_TABLE_PREFIX = "validation_";
+    private static final int MAX_TEXT_LENGTH = 4000;
+    private static final int MAX_QUEUED_FILES = 1000; // Validation threads wait once this many files are queued for the writer
+    private static final Object END_OF_RESULTS = new Object(); // Queued by close() after the last file
+
+    private static final Logger logger = LoggerFactory.getLogger(JdbcResultSink.class);
+
+    private final DataSource dataSource;
+    private final int batchSize;
+    /** Identifies the rows written by this sink, logged and reported so that a run's rows can be found. */
+    final String runId = UUID.randomUUID().toString();
+    private HikariDataSource ownedPool;
+
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(MAX_QUEUED_FILES);
+    private final Thread writerThread = new Thread(this::writeQueuedFiles, "jdbc-result-writer");
+    private final AtomicInteger unwrittenFiles = new AtomicInteger(0);
+
+    private final String insertMetricsSql;
+    private final String insertCountsSql;
+    private final String insertDetailedCountsSql;
+    private final String insertAssertionsSql;
+    private final String insertProcessingErrorsSql;
+
+    /**
+     * Constructor to create a new JdbcResultSink over an existing DataSource, such as an embedded in-memory database.
+     *
+     * @param dataSource   The DataSource to obtain connections from.
+     * @param batchSize    The maximum number of rows sent to the database in one batch, and about the number
+     *                     of rows written per transaction.
+     * @param tablePrefix  The prefix of the result table names.
+     * @param createTables Whether to create the result tables if they do not exist yet.
+     * @throws SQLException If the tables cannot be created.
+     */
+    JdbcResultSink(DataSource dataSource, int batchSize, String tablePrefix, boolean createTables) throws SQLException {
+        this.dataSource = dataSource;
+        this.batchSize = Math.max(1, batchSize);
+
+        this.insertMetricsSql = "INSERT INTO " + tablePrefix + "metrics"
+                + " (run_id, file_name, file_size, process_start, process_end, duration_ms) VALUES (?, ?, ?, ?, ?, ?)";
+        this.insertCountsSql = "INSERT INTO " + tablePrefix + "counts"
+                + " (run_id, file_name, error_count, warning_count) VALUES (?, ?, ?, ?)";
+        this.insertDetailedCountsSql = "INSERT INTO " + tablePrefix + "detailed_counts"
+                + " (run_id, file_name, assertion_id, error_count, warning_count) VALUES (?, ?, ?, ?, ?)";
+        this.insertAssertionsSql = "INSERT INTO " + tablePrefix + "assertions"
+                + " (run_id, file_name, assertion_id, description, path, type) VALUES (?, ?, ?, ?, ?, ?)";
+        this.insertProcessingErrorsSql = "INSERT INTO " + tablePrefix + "processing_errors"
+                + " (run_id, file_name, error_message) VALUES (?, ?, ?)";
+
+        if (createTables) {
+            createTables(tablePrefix);
+        }
+        writerThread.start();
+    }
+
+    /**
+     * Creates a JdbcResultSink backed by a HikariCP pool from the [database] section of an INI file.
+     *
+     * @param configFile The INI file to read.
+     * @return The configured sink, or null if the file does not exist or the database output is not enabled.
+     * @throws IOException  If the INI file cannot be read or is missing required settings.
+     * @throws SQLException If the pool cannot connect or the tables cannot be created.
+     */
+    static JdbcResultSink fromConfig(File configFile) throws IOException, SQLException {
+        if (!configFile.isFile()) {
+            return null;
+        }
+
+        Profile.Section section = new Ini(configFile).get("database");
+        if (section == null || !Boolean.parseBoolean(section.get("enabled"))) {
+            return null;
+        }
+
+        String url = section.get("url");
+        if (url == null || url.isEmpty()) {
+            throw new IOException("Missing url in [database] section of " + configFile.getName());
+        }
+
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName("SchematronResultSink");
+        hikariConfig.setJdbcUrl(url);
+        hikariConfig.setUsername(section.get("username"));
+        hikariConfig.setPassword(section.get("password"));
+        hikariConfig.setMaximumPoolSize(getInt(section, "pool_size", DEFAULT_POOL_SIZE));
+        hikariConfig.setAutoCommit(false);
+
+        HikariDataSource pool = new HikariDataSource(hikariConfig);
+        try {
+            String tablePrefix = section.get("table_prefix");
+            JdbcResultSink sink = new JdbcResultSink(pool,
+                    getInt(section, "batch_size", DEFAULT_BATCH_SIZE),
+                    tablePrefix != null ? tablePrefix : DEFAULT_TABLE_PREFIX,
+                    Boolean.parseBoolean(section.get("create_tables")));
+            sink.ownedPool = pool;
+            return sink;
+        } catch (IOException | SQLException | RuntimeException e) {
+            pool.close();
+            throw e;
+        }
+    }
+
+    private static int getInt(Profile.Section section, String key, int defaultValue) throws IOException {
+        String value = section.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + key + " in [database] section: " + value);
+        }
+    }
+
+    /**
+     * Creates the result tables with portable column types if they do not exist yet.
+     *
+     * @param tablePrefix The prefix of the result table names.
+     * @throws SQLException If a table cannot be created.
+     */
+    private void createTables(String tablePrefix) throws SQLException {
+        String[] ddl = {
+                "CREATE TABLE IF NOT EXISTS " + tablePrefix + "metrics (run_id VARCHAR(36), file_name VARCHAR(1024),"
+                        + " file_size BIGINT, process_start TIMESTAMP, process_end TIMESTAMP, duration_ms BIGINT)",
+                "CREATE TABLE IF NOT EXISTS " + tablePrefix + "counts (run_id VARCHAR(36), file_name VARCHAR(1024),"
+                        + " error_count INTEGER, warning_count INTEGER)",
+                "CREATE TABLE IF NOT EXISTS " + tablePrefix + "detailed_counts (run_id VARCHAR(36), file_name VARCHAR(1024),"
+                        + " assertion_id VARCHAR(255), error_count INTEGER, warning_count INTEGER)",
+                "CREATE TABLE IF NOT EXISTS " + tablePrefix + "assertions (run_id VARCHAR(36), file_name VARCHAR(1024),"
+                        + " assertion_id VARCHAR(255), description VARCHAR(4000), path VARCHAR(4000), type VARCHAR(16))",
+                "CREATE TABLE IF NOT EXISTS " + tablePrefix + "processing_errors (run_id VARCHAR(36), file_name VARCHAR(1024),"
+                        + " error_message VARCHAR(4000))"
+        };
+
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (String sql : ddl) {
+                statement.execute(sql);
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        }
+    }
+
+    /**
+     * Queues the results of a validated file for the writer thread.
+     * Blocks while the queue is full, so the validation threads never run far ahead of the database.
+     *
+     * @param result The validation results for the file.
+     * @throws InterruptedException If the thread is interrupted while waiting for room in the queue.
+     */
+    @Override
+    public void fileValidated(ValidationResult result) throws InterruptedException {
+        queue.put(result);
+    }
+
+    /**
+     * Queues a file that could not be processed for the writer thread.
+     *
+     * @param fileName     The name of the file, or its entry path inside an archive.
+     * @param errorMessage The processing error message.
+     * @throws InterruptedException If the thread is interrupted while waiting for room in the queue.
+     */
+    @Override
+    public void fileFailed(String fileName, String errorMessage) throws InterruptedException {
+        queue.put(new ProcessingError(fileName, errorMessage));
+    }
+
+    /**
+     * Returns the number of files whose rows could not be written and were rolled back.
+     *
+     * @return The number of files missing from the database, known for certain once the sink is closed.
+     */
+    int unwrittenFiles() {
+        return unwrittenFiles.get();
+    }
+
+    /**
+     * Body of the writer thread: takes whole files off the queue until about batch_size rows are gathered
+     * or the queue is empty, and writes them in one transaction, until the end marker is reached.
+     */
+    private void writeQueuedFiles() {
+        final List<Object> group = new ArrayList<>();
+        boolean ended = false;
+        try {
+            while (!ended) {
+                Object file = queue.take();
+                int rows = 0;
+                while (file != null && file != END_OF_RESULTS) {
+                    group.add(file);
+                    rows += rowCount(file);
+                    file = rows < batchSize ? queue.poll() : null;
+                }
+                ended = file == END_OF_RESULTS;
+
+                if (!group.isEmpty()) {
+                    writeGroup(group);
+                    group.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.error("Database writer interrupted; results still queued are not written");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a group of files in one transaction. If that fails, each file is written in its own
+     * transaction instead, so that only the file at fault is missing from the database.
+     *
+     * @param files The queued ValidationResult and ProcessingError objects to write.
+     */
+    private void writeGroup(List<Object> files) {
+        try {
+            writeFiles(files);
+        } catch (SQLException | RuntimeException e) {
+            if (files.size() > 1) {
+                for (Object file : files) {
+                    writeGroup(Collections.singletonList(file));
+                }
+                return;
+            }
+            unwrittenFiles.incrementAndGet();
+            Object file = files.get(0);
+            logger.error("Could not write database rows for file: {}", file instanceof ValidationResult
+                    ? ((ValidationResult) file).fileName : ((ProcessingError) file).fileName, e);
+        }
+    }
+
+    private void writeFiles(List<Object> files) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (BatchedInsert metrics = new BatchedInsert(connection, insertMetricsSql);
+                 BatchedInsert counts = new BatchedInsert(connection, insertCountsSql);
+                 BatchedInsert detailedCounts = new BatchedInsert(connection, insertDetailedCountsSql);
+                 BatchedInsert assertions = new BatchedInsert(connection, insertAssertionsSql);
+                 BatchedInsert processingErrors = new BatchedInsert(connection, insertProcessingErrorsSql)) {
+
+                for (Object file : files) {
+                    if (file instanceof ProcessingError) {
+                        ProcessingError error = (ProcessingError) file;
+                        processingErrors.statement.setString(1, runId);
+                        processingErrors.statement.setString(2, error.fileName);
+                        processingErrors.statement.setString(3, truncate(error.errorMessage));
+                        processingErrors.add();
+                        continue;
+                    }
+
+                    ValidationResult result = (ValidationResult) file;
+                    metrics.statement.setString(1, runId);
+                    metrics.statement.setString(2, result.fileName);
+                    metrics.statement.setLong(3, result.fileSize);
+                    metrics.statement.setTimestamp(4, new Timestamp(result.startTime));
+                    metrics.statement.setTimestamp(5, new Timestamp(result.endTime));
+                    metrics.statement.setLong(6, result.endTime - result.startTime);
+                    metrics.add();
+
+                    counts.statement.setString(1, runId);
+                    counts.statement.setString(2, result.fileName);
+                    counts.statement.setInt(3, result.totalErrors);
+                    counts.statement.setInt(4, result.totalWarnings);
+                    counts.add();
+
+                    for (Map.Entry<String, Integer> entry : result.errorCounts.entrySet()) {
+                        addDetailedCount(detailedCounts, result.fileName, entry.getKey(), entry.getValue(), 0);
+                    }
+                    for (Map.Entry<String, Integer> entry : result.warningCounts.entrySet()) {
+                        addDetailedCount(detailedCounts, result.fileName, entry.getKey(), 0, entry.getValue());
+                    }
+
+                    for (int i = 0; i < result.assertions.length(); i++) {
+                        final JSONObject jsonObject = result.assertions.getJSONObject(i);
+                        final String type = jsonObject.optString("type");
+                        if (!"error".equals(type) && !"warning".equals(type)) {
+                            continue;
+                        }
+
+                        assertions.statement.setString(1, runId);
+                        assertions.statement.setString(2, result.fileName);
+                        assertions.statement.setString(3, jsonObject.optString("assertionId"));
+                        assertions.statement.setString(4, truncate(jsonObject.optString("description")
+                                .replaceAll("\\s+", " ")
+                                .trim()));
+                        assertions.statement.setString(5, truncate(jsonObject.optString("path")));
+                        assertions.statement.setString(6, type);
+                        assertions.add();
+                    }
+                }
+
+                metrics.flush();
+                counts.flush();
+                detailedCounts.flush();
+                assertions.flush();
+                processingErrors.flush();
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private void addDetailedCount(BatchedInsert detailedCounts, String fileName, String assertionId,
+                                  int errorCount, int warningCount) throws SQLException {
+        detailedCounts.statement.setString(1, runId);
+        detailedCounts.statement.setString(2, fileName);
+        detailedCounts.statement.setString(3, assertionId);
+        detailedCounts.statement.setInt(4, errorCount);
+        detailedCounts.statement.setInt(5, warningCount);
+        detailedCounts.add();
+    }
+
+    private static int rowCount(Object file) {
+        if (file instanceof ValidationResult) {
+            ValidationResult result = (ValidationResult) file;
+            return 2 + result.errorCounts.size() + result.warningCounts.size() + result.assertions.length();
+        }
+        return 1;
+    }
+
+    private static String truncate(String value) {
+        if (value != null && value.length() > MAX_TEXT_LENGTH) {
+            return value.substring(0, MAX_TEXT_LENGTH);
+        }
+        return value;
+    }
+
+    /**
+     * Waits for the writer thread to write every queued file, then closes the connection pool if this sink created it.
+     */
+    @Override
+    public void close() {
+        try {
+            queue.put(END_OF_RESULTS);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (ownedPool != null) {
+                ownedPool.close();
+            }
+        }
+    }
+
+    /**
+     * A prepared insert whose rows are sent to the database batch_size at a time.
+     */
+    private class BatchedInsert implements AutoCloseable {
+        final PreparedStatement statement;
+        private int pending;
+
+        BatchedInsert(Connection connection, String sql) throws SQLException {
+            this.statement = connection.prepareStatement(sql);
+        }
+
+        /**
+         * Adds the row set on the statement to the batch, sending the batch once it holds batch_size rows.
+         */
+        void add() throws SQLException {
+            statement.addBatch();
+            if (++pending >= batchSize) {
+                flush();
+            }
+        }
+
+        void flush() throws SQLException {
+            if (pending > 0) {
+                statement.executeBatch();
+                pending = 0;
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            statement.close();
+        }
+    }
+
+    /**
+     * A file that could not be processed, waiting in the queue for the writer thread.
+     */
+    private static class ProcessingError {
+        final String fileName;
+        final String errorMessage;
+
+        ProcessingError(String fileName, String errorMessage) {
+            this.fileName = fileName;
+            this.errorMessage = errorMessage;
+        }
+    }
+}
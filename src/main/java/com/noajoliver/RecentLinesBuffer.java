@@ -0,0 +1,59 @@
+package com.noajoliver;
+
+/**
+ * RecentLinesBuffer is a fixed-size ring buffer holding the most recently added lines of text.
+ * Worker threads add lines cheaply; the UI periodically takes a snapshot, so memory stays bounded
+ * no matter how many files are processed.
+ */
+class RecentLinesBuffer {
+    private final String[] lines;
+    private int next;
+    private int size;
+    private long version;
+
+    /**
+     * Constructor to create a new RecentLinesBuffer object.
+     *
+     * @param capacity The maximum number of lines retained; older lines are overwritten.
+     */
+    RecentLinesBuffer(int capacity) {
+        this.lines = new String[capacity];
+    }
+
+    /**
+     * Adds a line, overwriting the oldest one when the buffer is full.
+     *
+     * @param line The line to add, without a trailing newline.
+     */
+    synchronized void add(String line) {
+        lines[next] = line;
+        next = (next + 1) % lines.length;
+        if (size < lines.length) {
+            size++;
+        }
+        version++;
+    }
+
+    /**
+     * Returns a counter that changes every time a line is added, so callers can skip unchanged snapshots.
+     *
+     * @return The number of lines added so far.
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Returns the retained lines, oldest first, each terminated by a newline.
+     *
+     * @return The retained lines as a single string.
+     */
+    synchronized String snapshot() {
+        StringBuilder sb = new StringBuilder();
+        int start = (next - size + lines.length) % lines.length;
+        for (int i = 0; i < size; i++) {
+            sb.append(lines[(start + i) % lines.length]).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package com.noajoliver;
+
+import java.io.Closeable;
+
+/**
+ * ResultSink receives the outcome of each validated file, in addition to the CSV reports.
+ * Implementations are called concurrently from the worker threads and must be thread-safe.
+ */
+interface ResultSink extends Closeable {
+
+    /**
+     * Records the results of a file that was validated successfully.
+     *
+     * @param result The validation results for the file.
+     * @throws Exception If the results cannot be recorded.
+     */
+    void fileValidated(ValidationResult result) throws Exception;
+
+    /**
+     * Records a file that could not be processed.
+     *
+     * @param fileName     The name of the file, or its entry path inside an archive.
+     * @param errorMessage The processing error message.
+     * @throws Exception If the error cannot be recorded.
+     */
+    void fileFailed(String fileName, String errorMessage) throws Exception;
+}
@@ -0,0 +1,410 @@
+package com.noajoliver;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.Logger;
+import net.sf.saxon.lib.TraceListener;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.trace.Traceable;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RuleProfiler aggregates how much time each Schematron pattern, rule and assertion costs across a validation run.
+ * The compiled Schematron XSLT is indexed once to map stylesheet line numbers to rule and assertion IDs; a Saxon
+ * TraceListener attached to each transformation then times the traced templates and instructions at those lines.
+ * Rule times exclude the time spent in nested template calls, so each rule is charged only for its own tests.
+ *
+ * <p>The index understands the layout produced by the ISO Schematron skeleton (iso_svrl_for_xslt2.xsl), where
+ * svrl:active-pattern, svrl:fired-rule and svrl:failed-assert are literal result elements whose id and name are
+ * written either as literal attributes or by child xsl:attribute instructions with constant content.</p>
+ */
+class RuleProfiler {
+
+    private static final String XSL_NS = "http://www.w3.org/1999/XSL/Transform";
+    private static final String SVRL_NS = "http://purl.oclc.org/dsdl/svrl";
+
+    private final Map<Integer, ProfiledItem> itemsByLine = new HashMap<>();
+    private final Set<Integer> templateLines = new HashSet<>();
+
+    /**
+     * Constructor to create a new RuleProfiler for a compiled Schematron stylesheet.
+     *
+     * @param stylesheet The stylesheet that will be run with tracing enabled.
+     * @throws IOException If the stylesheet cannot be read or parsed.
+     */
+    RuleProfiler(InputStream stylesheet) throws IOException {
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.newSAXParser().parse(stylesheet, new StylesheetIndexer());
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Error indexing Schematron stylesheet for profiling: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates a TraceListener for a single transformation. Listeners are not thread-safe,
+     * but all of them add to the same totals.
+     *
+     * @return A new TraceListener feeding this profiler.
+     */
+    TraceListener newTraceListener() {
+        return new ProfilingTraceListener();
+    }
+
+    /**
+     * Writes the aggregated profile as a CSV file ranked by total time, most expensive first.
+     * Pattern rows are the sum of their rules; rule rows include the assertions evaluated in them.
+     *
+     * @param fileName The CSV file to write.
+     * @throws IOException If an I/O error occurs.
+     */
+    void writeCsv(String fileName) throws IOException {
+        Map<String, ProfileRow> rows = new LinkedHashMap<>();
+        for (ProfiledItem item : itemsByLine.values()) {
+            long nanos = item.nanos.sum();
+            long evaluations = item.evaluations.sum();
+            if (evaluations == 0) {
+                continue;
+            }
+            rows.computeIfAbsent(item.level + "|" + item.id + "|" + item.patternId,
+                    k -> new ProfileRow(item.level, item.id, item.patternId)).add(nanos, evaluations);
+            if ("rule".equals(item.level)) {
+                rows.computeIfAbsent("pattern|" + item.patternId,
+                        k -> new ProfileRow("pattern", item.patternId, item.patternId)).add(nanos, evaluations);
+            }
+        }
+
+        List<ProfileRow> ranked = new ArrayList<>(rows.values());
+        ranked.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+            writer.write("rank,level,id,pattern_id,total_time_ms,evaluations,avg_time_us\n");
+            int rank = 1;
+            for (ProfileRow row : ranked) {
+                writer.write(String.format(Locale.ROOT, "%d,%s,%s,%s,%.3f,%d,%.3f\n",
+                        rank++,
+                        row.level,
+                        csvField(row.id),
+                        csvField(row.patternId),
+                        row.nanos / 1_000_000.0,
+                        row.evaluations,
+                        row.nanos / 1_000.0 / row.evaluations));
+            }
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    /**
+     * A rule template or assertion instruction in the stylesheet, with its running totals.
+     */
+    private static class ProfiledItem {
+        final String level;
+        final String id;
+        final String mode;
+        String patternId;
+        final LongAdder nanos = new LongAdder();
+        final LongAdder evaluations = new LongAdder();
+
+        ProfiledItem(String level, String id, String mode) {
+            this.level = level;
+            this.id = id;
+            this.mode = mode;
+        }
+    }
+
+    /**
+     * One line of the profile CSV, merging items that share a level, ID and pattern.
+     */
+    private static class ProfileRow {
+        final String level;
+        final String id;
+        final String patternId;
+        long nanos;
+        long evaluations;
+
+        ProfileRow(String level, String id, String patternId) {
+            this.level = level;
+            this.id = id;
+            this.patternId = patternId;
+        }
+
+        void add(long nanos, long evaluations) {
+            this.nanos += nanos;
+            this.evaluations += evaluations;
+        }
+    }
+
+    /**
+     * An SVRL literal result element being indexed. Its IDs are only known at its end tag,
+     * since the skeleton may generate them with xsl:attribute children.
+     */
+    private static class SvrlElement {
+        final String localName;
+        final int line;
+        final Map<String, String> attributes = new HashMap<>();
+
+        SvrlElement(String localName, int line, Attributes literalAttributes) {
+            this.localName = localName;
+            this.line = line;
+            for (String name : new String[]{"id", "name", "context", "test"}) {
+                String value = literalAttributes.getValue(name);
+                if (value != null && !value.isEmpty()) {
+                    attributes.put(name, value);
+                }
+            }
+        }
+
+        String get(String name) {
+            return attributes.get(name);
+        }
+    }
+
+    /**
+     * SAX handler recording the line of every template, the rule each template fires,
+     * the assertion tested by each xsl:choose or xsl:if, and the pattern each mode belongs to.
+     */
+    private class StylesheetIndexer extends DefaultHandler {
+        private Locator locator;
+        private final Map<String, String> patternsByMode = new HashMap<>();
+        private final Deque<Integer> conditionalLines = new ArrayDeque<>();
+        private String activePattern;
+        private int templateLine = -1;
+        private String templateMode;
+        private SvrlElement svrlElement;
+        private String generatedAttributeName;
+        private StringBuilder generatedAttributeValue;
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            this.locator = locator;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            int line = locator.getLineNumber();
+
+            if (XSL_NS.equals(uri)) {
+                switch (localName) {
+                    case "template":
+                        templateLine = line;
+                        templateMode = attributes.getValue("mode");
+                        templateLines.add(line);
+                        break;
+                    case "choose":
+                    case "if":
+                        conditionalLines.push(line);
+                        break;
+                    case "attribute":
+                        if (svrlElement != null) {
+                            generatedAttributeName = attributes.getValue("name");
+                            generatedAttributeValue = new StringBuilder(stringLiteral(attributes.getValue("select")));
+                        }
+                        break;
+                    case "value-of":
+                        if (generatedAttributeValue != null) {
+                            generatedAttributeValue.append(stringLiteral(attributes.getValue("select")));
+                        }
+                        break;
+                    case "apply-templates":
+                        // The root template announces each pattern just before applying its mode
+                        String mode = attributes.getValue("mode");
+                        if (activePattern != null && mode != null) {
+                            patternsByMode.putIfAbsent(mode, activePattern);
+                            activePattern = null;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } else if (SVRL_NS.equals(uri) && isIndexedSvrlElement(localName)) {
+                svrlElement = new SvrlElement(localName, line, attributes);
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (generatedAttributeValue != null) {
+                generatedAttributeValue.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (XSL_NS.equals(uri)) {
+                if ("template".equals(localName)) {
+                    templateLine = -1;
+                    templateMode = null;
+                } else if ("choose".equals(localName) || "if".equals(localName)) {
+                    conditionalLines.pop();
+                } else if ("attribute".equals(localName) && generatedAttributeValue != null) {
+                    String value = generatedAttributeValue.toString().trim();
+                    if (generatedAttributeName != null && !value.isEmpty()) {
+                        svrlElement.attributes.putIfAbsent(generatedAttributeName, value);
+                    }
+                    generatedAttributeName = null;
+                    generatedAttributeValue = null;
+                }
+            } else if (SVRL_NS.equals(uri) && svrlElement != null && svrlElement.localName.equals(localName)) {
+                indexSvrlElement(svrlElement);
+                svrlElement = null;
+            }
+        }
+
+        private boolean isIndexedSvrlElement(String localName) {
+            return "active-pattern".equals(localName) || "fired-rule".equals(localName)
+                    || "failed-assert".equals(localName) || "successful-report".equals(localName);
+        }
+
+        /**
+         * Records a pattern, rule or assertion once all of its literal and generated attributes are known.
+         *
+         * @param element The SVRL element that has just ended.
+         */
+        private void indexSvrlElement(SvrlElement element) {
+            switch (element.localName) {
+                case "active-pattern":
+                    activePattern = firstNonEmpty(element.get("id"), element.get("name"), "pattern-line-" + element.line);
+                    break;
+                case "fired-rule":
+                    if (templateLine >= 0) {
+                        String ruleId = firstNonEmpty(element.get("id"), element.get("context"), "rule-line-" + templateLine);
+                        itemsByLine.put(templateLine, new ProfiledItem("rule", ruleId, templateMode));
+                    }
+                    break;
+                default:
+                    if (!conditionalLines.isEmpty()) {
+                        String assertionId = firstNonEmpty(element.get("id"), element.get("test"), "assertion-line-" + element.line);
+                        itemsByLine.put(conditionalLines.peek(), new ProfiledItem("assertion", assertionId, templateMode));
+                    }
+                    break;
+            }
+        }
+
+        /**
+         * Returns the value of an XPath string literal such as 'a-1234', or an empty string for any other expression.
+         */
+        private String stringLiteral(String expression) {
+            if (expression != null) {
+                String trimmed = expression.trim();
+                if (trimmed.length() >= 2 && (trimmed.charAt(0) == '\'' || trimmed.charAt(0) == '"')
+                        && trimmed.charAt(trimmed.length() - 1) == trimmed.charAt(0)) {
+                    return trimmed.substring(1, trimmed.length() - 1);
+                }
+            }
+            return "";
+        }
+
+        @Override
+        public void endDocument() {
+            for (ProfiledItem item : itemsByLine.values()) {
+                String mode = item.mode != null ? item.mode : "#default";
+                item.patternId = patternsByMode.getOrDefault(mode, mode);
+            }
+        }
+
+        private String firstNonEmpty(String... values) {
+            for (String value : values) {
+                if (value != null && !value.isEmpty()) {
+                    return value;
+                }
+            }
+            return "";
+        }
+    }
+
+    /**
+     * Times traced instructions for one transformation. Every enter is matched by a leave, so a
+     * stack of frames tracks nesting; template frames pass their elapsed time up to the enclosing
+     * template so that a rule's time excludes the child elements it goes on to process.
+     */
+    private class ProfilingTraceListener implements TraceListener {
+        private final Deque<Frame> frames = new ArrayDeque<>();
+
+        @Override
+        public void setOutputDestination(Logger stream) {
+        }
+
+        @Override
+        public void open(Controller controller) {
+            frames.clear();
+        }
+
+        @Override
+        public void close() {
+            frames.clear();
+        }
+
+        @Override
+        public void enter(Traceable instruction, Map<String, Object> properties, XPathContext context) {
+            int line = instruction.getLocation() != null ? instruction.getLocation().getLineNumber() : -1;
+            frames.push(new Frame(itemsByLine.get(line), templateLines.contains(line), System.nanoTime()));
+        }
+
+        @Override
+        public void leave(Traceable instruction) {
+            if (frames.isEmpty()) {
+                return;
+            }
+            Frame frame = frames.pop();
+            long elapsed = System.nanoTime() - frame.start;
+
+            if (frame.isTemplate) {
+                for (Frame outer : frames) {
+                    if (outer.isTemplate) {
+                        outer.nestedTemplateNanos += elapsed;
+                        break;
+                    }
+                }
+            }
+
+            if (frame.item != null) {
+                long charged = frame.isTemplate ? elapsed - frame.nestedTemplateNanos : elapsed;
+                frame.item.nanos.add(charged);
+                frame.item.evaluations.increment();
+            }
+        }
+
+        @Override
+        public void startCurrentItem(Item currentItem) {
+        }
+
+        @Override
+        public void endCurrentItem(Item currentItem) {
+        }
+    }
+
+    /**
+     * A traced instruction currently executing.
+     */
+    private static class Frame {
+        final ProfiledItem item;
+        final boolean isTemplate;
+        final long start;
+        long nestedTemplateNanos;
+
+        Frame(ProfiledItem item, boolean isTemplate, long start) {
+            this.item = item;
+            this.isTemplate = isTemplate;
+            this.start = start;
+        }
+    }
+}
@@ -13,11 +13,11 @@ import org.w3c.dom.NodeList;
 import javax.swing.*;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamSource;
 import java.awt.*;
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
@@ -39,6 +39,11 @@ public class SchematronFileValidator {
     private static final Logger logger = LoggerFactory.getLogger(SchematronFileValidator.class);
     private static final int THREAD_POOL_SIZE = 12; // Adjust this based on your system's capabilities
     private static final int MAX_LINES_PER_FILE = 100000;
+    private static final String FINAL_XSLT_RESOURCE = "final_xslt.xsl";
+    private static final String CONFIG_FILE = "validator.ini"; // Optional [database] and [triage] settings, read from the working directory
+    private static final int ARCHIVE_READ_AHEAD = THREAD_POOL_SIZE * 4; // Buffered TAR entries waiting for a thread
+    private static final int UI_REFRESH_INTERVAL_MS = 250; // Progress labels are refreshed at this rate, not per file
+    private static final int RECENT_DURATIONS_SHOWN = 500; // Only the most recent file durations are kept in the UI
 
     // Pause and Resume control
     private static final Lock pauseLock = new ReentrantLock();
@@ -70,8 +75,8 @@ public class SchematronFileValidator {
         frame.setLayout(new GridBagLayout());
 
         // UI Components
-        JLabel label = new JLabel("Select a folder containing XML files for validation:");
-        JButton selectFolderButton = new JButton("Select Folder");
+        JLabel label = new JLabel("Select a folder or ZIP/TAR.GZ archive of XML files for validation:");
+        JButton selectFolderButton = new JButton("Select Input");
         JLabel fileCountLabel = new JLabel("Files to process: 0");
         JLabel overallStartLabel = new JLabel("Overall Start Time: Not started");
         JLabel overallEndLabel = new JLabel("Overall End Time: Not finished");
@@ -80,6 +85,8 @@ public class SchematronFileValidator {
         JLabel remainingTimeLabel = new JLabel("Estimated Remaining Time: N/A");
         activeThreadsLabel = new JLabel("Active Threads: 0");
 
+        JCheckBox profileRulesCheckBox = new JCheckBox("Profile Schematron rules (slower, writes _rule_profile.csv)");
+
         JButton pauseButton = new JButton("Pause");
         JButton resumeButton = new JButton("Resume");
         resumeButton.setEnabled(false);  // Initially disabled
@@ -179,22 +186,30 @@ public class SchematronFileValidator {
 
         gbc.gridx = 0;
         gbc.gridy = 11;
+        gbc.gridwidth = 2;
+        gbc.fill = GridBagConstraints.NONE;
+        gbc.weighty = 0;
+        gbc.anchor = GridBagConstraints.WEST;
+        frame.add(profileRulesCheckBox, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 12;
         gbc.gridwidth = 1;
         gbc.anchor = GridBagConstraints.CENTER;
         frame.add(pauseButton, gbc);
 
         gbc.gridx = 1;
-        gbc.gridy = 11;
+        gbc.gridy = 12;
         gbc.anchor = GridBagConstraints.CENTER;
         frame.add(resumeButton, gbc);
 
         // Event handling for Select Folder button
         selectFolderButton.addActionListener(e -> {
             JFileChooser folderChooser = new JFileChooser();
-            folderChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            folderChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
             int returnValue = folderChooser.showOpenDialog(frame);
             if (returnValue == JFileChooser.APPROVE_OPTION) {
-                final String folderPath = folderChooser.getSelectedFile().getAbsolutePath();
+                final File input = folderChooser.getSelectedFile();
 
                 JFileChooser saveFileChooser = new JFileChooser();
                 saveFileChooser.setDialogTitle("Save CSV");
@@ -208,18 +223,113 @@ public class SchematronFileValidator {
                     final String countsFileName = baseName + "_counts.csv";
                     final String detailedCountsFileName = baseName + "_detailed_counts.csv";
                     final String errorsFileName = baseName + "_processing_errors.csv";
+                    final String ruleProfileFileName = baseName + "_rule_profile.csv";
+                    final String sampleSummaryFileName = baseName + "_sample_summary.csv";
+                    final boolean profileRules = profileRulesCheckBox.isSelected();
+
+                    final XmlSource xmlSource;
+                    try {
+                        xmlSource = XmlSource.open(input, ARCHIVE_READ_AHEAD);
+                    } catch (IOException ex) {
+                        validationReportArea.setText("Unable to open input: " + ex.getMessage());
+                        logger.error("Unable to open input: {}", input, ex);
+                        return;
+                    }
 
-                    final File folder = new File(folderPath);
-                    final File[] xmlFiles = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".xml"));
+                    // Archives that can only be streamed report -1 until every entry has been read
+                    final int fileCount = xmlSource.count();
+
+                    final TriageOptions triageOptions;
+                    final StratifiedSampler sampler;
+                    try {
+                        triageOptions = TriageOptions.fromConfig(new File(CONFIG_FILE));
+                        // A folder input has no subfolders to stratify by, since only the files directly inside it are read
+                        if (input.isDirectory() && triageOptions.isSampling()
+                                && TriageOptions.STRATIFY_FOLDER.equals(triageOptions.stratifyBy)) {
+                            throw new IOException("stratify_by = folder in [triage] section needs a ZIP or TAR archive as input;"
+                                    + " use size or none for a folder");
+                        }
+                        sampler = triageOptions.isSampling() ? new StratifiedSampler(triageOptions) : null;
+                    } catch (IOException ex) {
+                        validationReportArea.setText("Unable to prepare validation: " + ex.getMessage());
+                        logger.error("Unable to prepare validation of: {}", input, ex);
+                        try {
+                            xmlSource.close();
+                        } catch (IOException closeException) {
+                            logger.warn("Unable to close input: {}", input, closeException);
+                        }
+                        return;
+                    }
 
-                    if (xmlFiles != null && xmlFiles.length > 0) {
-                        fileCountLabel.setText("Files to process: " + xmlFiles.length);
-                        progressBar.setMaximum(xmlFiles.length);
+                    if (fileCount != 0) {
+                        if (fileCount > 0) {
+                            fileCountLabel.setText(sampler != null
+                                    ? "Files to process: drawing sample from " + fileCount
+                                    : "Files to process: " + fileCount);
+                            progressBar.setMaximum(fileCount);
+                        } else {
+                            fileCountLabel.setText("Files to process: streaming from " + input.getName());
+                            progressBar.setIndeterminate(true);
+                        }
                         progressBar.setValue(0);
 
-                        SwingWorker<Void, String> worker = new SwingWorker<Void, String>() {
-                            long overallStartTime;
+                        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+                            volatile int totalFiles = fileCount; // Becomes the sample size once the sample is planned
+                            volatile long overallStartTime;
                             long overallEndTime;
+                            int submittedFiles;
+                            String inputError;
+                            String databaseRunId;
+                            int unwrittenDatabaseFiles;
+                            final AtomicInteger failingFiles = new AtomicInteger(0);
+                            volatile boolean stoppedEarly;
+
+                            // Workers only touch these; the EDT reads them on a fixed-rate timer
+                            final AtomicInteger processedFiles = new AtomicInteger(0);
+                            final RecentLinesBuffer recentDurations = new RecentLinesBuffer(RECENT_DURATIONS_SHOWN);
+                            long shownDurationsVersion = -1;
+                            final javax.swing.Timer uiTimer = new javax.swing.Timer(UI_REFRESH_INTERVAL_MS, evt -> refreshProgress());
+
+                            /**
+                             * Refreshes the progress bar, labels and recent durations from a snapshot of the counters.
+                             * Runs on the EDT, so its cost is independent of how many files complete per second.
+                             */
+                            private void refreshProgress() {
+                                updateActiveThreadsLabel();
+
+                                long elapsedTime = System.currentTimeMillis() - overallStartTime;
+                                elapsedTimeLabel.setText("Elapsed Time: " + formatDuration(elapsedTime));
+
+                                int processed = processedFiles.get();
+                                if (totalFiles > 0) {
+                                    progressBar.setValue(processed);
+                                    progressBar.setString(String.format("%d / %d", processed, totalFiles));
+
+                                    if (processed > 0) {
+                                        long estimatedRemainingTime = (elapsedTime / processed) * (totalFiles - processed);
+                                        remainingTimeLabel.setText("Estimated Remaining Time: " + formatDuration(estimatedRemainingTime));
+                                    }
+                                } else {
+                                    progressBar.setString(String.format("%d processed", processed));
+                                }
+
+                                long version = recentDurations.version();
+                                if (version != shownDurationsVersion) {
+                                    fileDurationArea.setText(recentDurations.snapshot());
+                                    fileDurationArea.setCaretPosition(fileDurationArea.getDocument().getLength());
+                                    shownDurationsVersion = version;
+                                }
+                            }
+
+                            /**
+                             * Counts a file with errors and stops the run once max_failing_files is reached.
+                             */
+                            private void recordFailingFile() {
+                                if (triageOptions.maxFailingFiles > 0
+                                        && failingFiles.incrementAndGet() >= triageOptions.maxFailingFiles) {
+                                    stoppedEarly = true;
+                                }
+                            }
 
                             @Override
                             protected Void doInBackground() throws Exception {
@@ -227,6 +337,46 @@ public class SchematronFileValidator {
                                 final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
                                 String overallStart = dateFormat.format(new Date(overallStartTime));
                                 overallStartLabel.setText("Overall Start Time: " + overallStart);
+                                SwingUtilities.invokeLater(uiTimer::start);
+
+                                if (sampler != null) {
+                                    logger.info("Validating a {} sample with sample_seed {}",
+                                            triageOptions.sampleFraction, triageOptions.sampleSeed);
+                                }
+
+                                // Nothing has been submitted yet, so a failed setup only has the input to release
+                                if (sampler != null && fileCount > 0) {
+                                    // Listing a large input takes a while, so the sample is drawn here rather than on the EDT
+                                    try {
+                                        final int sampleSize = sampler.plan(xmlSource);
+                                        totalFiles = sampleSize;
+                                        SwingUtilities.invokeLater(() -> {
+                                            fileCountLabel.setText("Files to process: " + sampleSize + " sampled of " + fileCount);
+                                            progressBar.setMaximum(sampleSize);
+                                        });
+                                    } catch (Exception e) {
+                                        xmlSource.close();
+                                        throw new IOException("Could not draw the sample: " + e.getMessage(), e);
+                                    }
+                                }
+                                final RuleProfiler ruleProfiler;
+                                try {
+                                    ruleProfiler = profileRules ? createRuleProfiler() : null;
+                                } catch (Exception e) {
+                                    xmlSource.close();
+                                    throw new IOException("Could not prepare rule profiling: " + e.getMessage(), e);
+                                }
+                                final JdbcResultSink resultSink;
+                                try {
+                                    resultSink = JdbcResultSink.fromConfig(new File(CONFIG_FILE));
+                                } catch (Exception e) {
+                                    xmlSource.close();
+                                    throw new IOException("Could not open the database configured in " + CONFIG_FILE + ": " + e.getMessage(), e);
+                                }
+                                if (resultSink != null) {
+                                    databaseRunId = resultSink.runId;
+                                    logger.info("Writing results to the database with run_id {}", databaseRunId);
+                                }
 
                                 final ExecutorService executorService = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
                                 final CompletionService<Void> completionService = new ExecutorCompletionService<>(executorService);
@@ -241,8 +391,6 @@ public class SchematronFileValidator {
                                     detailedCountsWriter.write("file_name,assertionId,error_count,warning_count\n");
                                     errorsWriter.write("file_name,error_message\n");
 
-                                    final AtomicInteger processedFiles = new AtomicInteger(0);
-
                                     final AtomicInteger errorFileCounter = new AtomicInteger(1);
                                     final AtomicInteger warningFileCounter = new AtomicInteger(1);
 
@@ -254,11 +402,16 @@ public class SchematronFileValidator {
                                     errorWriter[0].write("file_name,assertionId,description,path,type\n");
                                     warningWriter[0].write("file_name,assertionId,description,path,type\n");
 
-                                    // Submit each XML file for processing
-                                    for (final File xmlFile : xmlFiles) {
+                                    // Submit each XML document for processing as the source hands it over
+                                    final XmlSource.EntryConsumer submitter = xmlEntry -> {
+                                        if (stoppedEarly) {
+                                            xmlEntry.release();
+                                            return false;
+                                        }
+
+                                        submittedFiles++;
                                         completionService.submit(() -> {
                                             totalThreads.incrementAndGet();
-                                            updateActiveThreadsLabel();
                                             try {
                                                 // Handle pause logic
                                                 while (true) {
@@ -268,7 +421,6 @@ public class SchematronFileValidator {
                                                             break;
                                                         }
                                                         pausedThreads.incrementAndGet();
-                                                        updateActiveThreadsLabel();
                                                         SwingUtilities.invokeLater(() -> {
                                                             validationReportArea.setText("Paused");
                                                             resumeButton.setEnabled(true);
@@ -276,20 +428,26 @@ public class SchematronFileValidator {
                                                         });
                                                         pausedCondition.await();
                                                         pausedThreads.decrementAndGet();
-                                                        updateActiveThreadsLabel();
                                                     } finally {
                                                         pauseLock.unlock();
                                                     }
                                                 }
 
+                                                // Skip files still queued once the run has been stopped
+                                                if (stoppedEarly) {
+                                                    return null;
+                                                }
+
                                                 // Start processing the XML file
                                                 final long startTime = System.currentTimeMillis();
                                                 final String processStart = dateFormat.format(new Date(startTime));
 
                                                 try {
-                                                    final String xmlFilePath = xmlFile.getAbsolutePath();
-                                                    final String svrlContent = runValidationAndGetSvrlContent(xmlFilePath);
-                                                    final String jsonOutput = parseSvrlContent(svrlContent);
+                                                    final SvrlOutput svrlOutput;
+                                                    try (InputStream xmlStream = xmlEntry.open()) {
+                                                        svrlOutput = runValidationAndGetSvrlContent(xmlStream, ruleProfiler, triageOptions.maxFailuresPerFile);
+                                                    }
+                                                    final String jsonOutput = parseSvrlContent(svrlOutput.content);
 
                                                     final Map<String, Integer> errorCounts = new HashMap<>();
                                                     final Map<String, Integer> warningCounts = new HashMap<>();
@@ -307,7 +465,7 @@ public class SchematronFileValidator {
                                                             totalErrors++;
 
                                                             synchronized (errorWriter[0]) {
-                                                                errorWriter[0].write(formatCsvLine(xmlFile.getName(), jsonObject));
+                                                                errorWriter[0].write(formatCsvLine(xmlEntry.name, jsonObject));
                                                                 errorLines.incrementAndGet();
                                                                 if (errorLines.get() >= MAX_LINES_PER_FILE) {
                                                                     errorWriter[0].close();
@@ -322,7 +480,7 @@ public class SchematronFileValidator {
                                                             totalWarnings++;
 
                                                             synchronized (warningWriter[0]) {
-                                                                warningWriter[0].write(formatCsvLine(xmlFile.getName(), jsonObject));
+                                                                warningWriter[0].write(formatCsvLine(xmlEntry.name, jsonObject));
                                                                 warningLines.incrementAndGet();
                                                                 if (warningLines.get() >= MAX_LINES_PER_FILE) {
                                                                     warningWriter[0].close();
@@ -337,18 +495,18 @@ public class SchematronFileValidator {
 
                                                     // Write counts to countsWriter
                                                     synchronized (countsWriter) {
-                                                        countsWriter.write(String.format("%s,%d,%d\n", xmlFile.getName(), totalErrors, totalWarnings));
+                                                        countsWriter.write(String.format("%s,%d,%d\n", xmlEntry.name, totalErrors, totalWarnings));
                                                     }
 
                                                     // Write detailed counts to detailedCountsWriter
                                                     synchronized (detailedCountsWriter) {
                                                         for (final String assertionId : errorCounts.keySet()) {
                                                             detailedCountsWriter.write(String.format("%s,%s,%d,%d\n",
-                                                                    xmlFile.getName(), assertionId, errorCounts.get(assertionId), 0));
+                                                                    xmlEntry.name, assertionId, errorCounts.get(assertionId), 0));
                                                         }
                                                         for (final String assertionId : warningCounts.keySet()) {
                                                             detailedCountsWriter.write(String.format("%s,%s,%d,%d\n",
-                                                                    xmlFile.getName(), assertionId, 0, warningCounts.get(assertionId)));
+                                                                    xmlEntry.name, assertionId, 0, warningCounts.get(assertionId)));
                                                         }
                                                     }
 
@@ -359,77 +517,163 @@ public class SchematronFileValidator {
                                                     // Write metrics to metricsWriter
                                                     synchronized (metricsWriter) {
                                                         metricsWriter.write(String.format("%s,%d,%s,%s,%d\n",
-                                                                xmlFile.getName(),
-                                                                xmlFile.length(),
+                                                                xmlEntry.name,
+                                                                xmlEntry.size,
                                                                 processStart,
                                                                 processEnd,
                                                                 duration));
+                                                    }
 
-                                                        publish(String.format(
-                                                                "File: %s, Size: %d bytes, Duration: %d ms\n",
-                                                                xmlFile.getName(), xmlFile.length(), duration));
-
-                                                        SwingUtilities.invokeLater(() -> {
-                                                            int processed = processedFiles.incrementAndGet();
-                                                            progressBar.setValue(processed);
-                                                            progressBar.setString(String.format("%d / %d", processed, xmlFiles.length));
-
-                                                            long elapsedTime = System.currentTimeMillis() - overallStartTime;
-                                                            long estimatedRemainingTime = (elapsedTime / processed) * (xmlFiles.length - processed);
+                                                    // A database failure is not a validation failure; the CSV outputs already hold the result
+                                                    if (resultSink != null) {
+                                                        try {
+                                                            resultSink.fileValidated(new ValidationResult(xmlEntry.name, xmlEntry.size,
+                                                                    startTime, endTime, totalErrors, totalWarnings,
+                                                                    errorCounts, warningCounts, jsonArray));
+                                                        } catch (Exception sinkException) {
+                                                            logger.error("Error recording validation result for file: {}", xmlEntry.name, sinkException);
+                                                        }
+                                                    }
 
-                                                            elapsedTimeLabel.setText("Elapsed Time: " + formatDuration(elapsedTime));
-                                                            remainingTimeLabel.setText("Estimated Remaining Time: " + formatDuration(estimatedRemainingTime));
-                                                        });
+                                                    if (sampler != null) {
+                                                        final Set<String> failedAssertionIds = new HashSet<>(errorCounts.keySet());
+                                                        failedAssertionIds.addAll(warningCounts.keySet());
+                                                        sampler.recordResult(xmlEntry, totalErrors > 0, failedAssertionIds);
+                                                    }
+                                                    if (totalErrors > 0) {
+                                                        recordFailingFile();
                                                     }
+
+                                                    processedFiles.incrementAndGet();
+                                                    recentDurations.add(String.format(
+                                                            "File: %s, Size: %d bytes, Duration: %d ms%s",
+                                                            xmlEntry.name, xmlEntry.size, duration,
+                                                            svrlOutput.capped ? ", stopped after " + triageOptions.maxFailuresPerFile + " failures" : ""));
                                                 } catch (Exception e) {
                                                     // Handle processing errors
-                                                    logger.error("Error processing file: {}", xmlFile.getName(), e);
+                                                    logger.error("Error processing file: {}", xmlEntry.name, e);
                                                     synchronized (errorsWriter) {
-                                                        errorsWriter.write(String.format("%s,%s\n", xmlFile.getName(), e.getMessage()));
+                                                        errorsWriter.write(String.format("%s,%s\n", xmlEntry.name, e.getMessage()));
+                                                    }
+                                                    if (sampler != null) {
+                                                        sampler.recordResult(xmlEntry, true, Collections.<String>emptyList());
+                                                    }
+                                                    recordFailingFile();
+                                                    if (resultSink != null) {
+                                                        try {
+                                                            resultSink.fileFailed(xmlEntry.name, e.getMessage());
+                                                        } catch (Exception sinkException) {
+                                                            logger.error("Error recording processing error for file: {}", xmlEntry.name, sinkException);
+                                                        }
                                                     }
                                                 }
                                             } finally {
+                                                xmlEntry.release();
                                                 totalThreads.decrementAndGet();
-                                                updateActiveThreadsLabel();
                                             }
                                             return null;
                                         });
-                                    }
-
-                                    // Wait for all files to be processed
-                                    for (int i = 0; i < xmlFiles.length; i++) {
-                                        completionService.take();
+                                        return true;
+                                    };
+
+                                    try {
+                                        // Unsampled entries are dropped before a streamed archive buffers them; once the run
+                                        // has stopped every entry is passed on, so that the submitter can end the loop
+                                        xmlSource.forEach(xmlEntry -> sampler == null || stoppedEarly || sampler.select(xmlEntry), submitter);
+                                    } catch (IOException e) {
+                                        // A damaged archive ends the input early; the entries already read are still validated below
+                                        logger.error("Error reading input: {}", input, e);
+                                        inputError = e.getMessage();
+                                        synchronized (errorsWriter) {
+                                            errorsWriter.write(String.format("%s,%s\n", input.getName(), e.getMessage()));
+                                        }
+                                        if (resultSink != null) {
+                                            try {
+                                                resultSink.fileFailed(input.getName(), e.getMessage());
+                                            } catch (Exception sinkException) {
+                                                logger.error("Error recording processing error for input: {}", input, sinkException);
+                                            }
+                                        }
+                                    } finally {
+                                        // Whatever ended the input, every submitted file must finish before the writers are closed
+                                        boolean interrupted = false;
+                                        int completed = 0;
+                                        while (completed < submittedFiles) {
+                                            try {
+                                                completionService.take();
+                                                completed++;
+                                            } catch (InterruptedException e) {
+                                                interrupted = true;
+                                            }
+                                        }
+                                        if (interrupted) {
+                                            Thread.currentThread().interrupt();
+                                        }
                                     }
 
                                     overallEndTime = System.currentTimeMillis();
+
+                                    if (ruleProfiler != null) {
+                                        ruleProfiler.writeCsv(ruleProfileFileName);
+                                    }
+                                    if (sampler != null) {
+                                        if (stoppedEarly) {
+                                            sampler.markStoppedEarly();
+                                        }
+                                        sampler.writeSummaryCsv(sampleSummaryFileName);
+                                    }
                                 } finally {
                                     executorService.shutdown();
+                                    try {
+                                        // Waits for the sink's writer thread to store the queued files
+                                        if (resultSink != null) {
+                                            resultSink.close();
+                                        }
+                                    } finally {
+                                        xmlSource.close();
+                                    }
                                 }
-                                return null;
-                            }
-
-                            @Override
-                            protected void process(List<String> chunks) {
-                                for (String chunk : chunks) {
-                                    fileDurationArea.append(chunk);
+                                // Known only now that closing the sink has waited for its writer thread
+                                if (resultSink != null) {
+                                    unwrittenDatabaseFiles = resultSink.unwrittenFiles();
                                 }
+                                return null;
                             }
 
                             @Override
                             protected void done() {
+                                uiTimer.stop();
+                                refreshProgress();
                                 try {
                                     get();
-                                    validationReportArea.setText("CSV saved to: " + fileToSave.getAbsolutePath());
-                                    fileCountLabel.setText("All files processed");
+                                    String report = "CSV saved to: " + fileToSave.getAbsolutePath();
+                                    if (databaseRunId != null) {
+                                        report += "\nDatabase rows written with run_id " + databaseRunId;
+                                        if (unwrittenDatabaseFiles > 0) {
+                                            report += " (" + unwrittenDatabaseFiles + " files could not be written, see the log)";
+                                        }
+                                    }
+                                    if (inputError != null) {
+                                        report += "\nInput could not be read completely: " + inputError;
+                                    }
+                                    if (stoppedEarly) {
+                                        report += "\nStopped early after " + failingFiles.get() + " failing files.";
+                                    }
+                                    if (sampler != null) {
+                                        report += "\n" + sampler.summary();
+                                    }
+                                    validationReportArea.setText(report);
+                                    fileCountLabel.setText(stoppedEarly ? "Stopped after " + failingFiles.get() + " failing files" : "All files processed");
 
                                     SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
                                     String overallEnd = dateFormat.format(new Date(overallEndTime));
                                     overallEndLabel.setText("Overall End Time: " + overallEnd);
 
                                     long totalTime = overallEndTime - overallStartTime;
-                                    long avgTimePerFile = totalTime / xmlFiles.length;
+                                    long avgTimePerFile = submittedFiles > 0 ? totalTime / submittedFiles : 0;
                                     avgProcessingTimeLabel.setText("Average Processing Time (Multi-threaded): " + avgTimePerFile + " ms");
 
+                                    progressBar.setIndeterminate(false);
                                     progressBar.setValue(progressBar.getMaximum());
                                     progressBar.setString("Complete");
 
@@ -438,7 +682,8 @@ public class SchematronFileValidator {
                                     resumeButton.setEnabled(false);
 
                                 } catch (InterruptedException | ExecutionException ex) {
-                                    validationReportArea.setText("An error occurred: " + ex.getMessage());
+                                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                                    validationReportArea.setText("An error occurred: " + cause.getMessage());
                                     logger.error("An error occurred during validation and parsing.", ex);
                                 }
                             }
@@ -481,7 +726,12 @@ public class SchematronFileValidator {
 
                         worker.execute();
                     } else {
-                        validationReportArea.setText("No XML files found in the selected folder.");
+                        validationReportArea.setText("No XML files found in the selected folder or archive.");
+                        try {
+                            xmlSource.close();
+                        } catch (IOException ex) {
+                            logger.warn("Unable to close input: {}", input, ex);
+                        }
                     }
                 }
             }
@@ -493,29 +743,30 @@ public class SchematronFileValidator {
 
     /**
      * Updates the label displaying the count of active threads.
-     * This count excludes threads that are currently paused.
+     * This count excludes threads that are currently paused. Must be called on the EDT.
      */
     private static void updateActiveThreadsLabel() {
-        SwingUtilities.invokeLater(() -> {
-            int activeThreads = totalThreads.get() - pausedThreads.get();
-            activeThreadsLabel.setText("Active Threads: " + activeThreads);
-        });
+        int activeThreads = totalThreads.get() - pausedThreads.get();
+        activeThreadsLabel.setText("Active Threads: " + activeThreads);
     }
 
     /**
-     * Runs the validation process on an XML file and returns the generated SVRL content as a string.
+     * Runs the validation process on an XML document and returns the generated SVRL content.
      *
-     * @param xmlFilePath The path to the XML file to be validated.
-     * @return The SVRL content generated by the validation process.
+     * @param xmlStream          The stream over the XML document to be validated.
+     * @param ruleProfiler       The profiler to trace the transformation with, or null when profiling is off.
+     * @param maxFailuresPerFile The number of failed assertions after which validation of the document stops, or 0.
+     * @return The SVRL content generated by the validation process, and whether it was cut short.
      * @throws IOException        If an I/O error occurs.
      * @throws SaxonApiException  If a Saxon processing error occurs.
      */
-    private static String runValidationAndGetSvrlContent(String xmlFilePath) throws IOException, SaxonApiException {
+    private static SvrlOutput runValidationAndGetSvrlContent(InputStream xmlStream, RuleProfiler ruleProfiler, int maxFailuresPerFile) throws IOException, SaxonApiException {
         Processor processor = new Processor(false);
         XsltCompiler compiler = processor.newXsltCompiler();
+        compiler.setCompileWithTracing(ruleProfiler != null);
 
         XsltExecutable executable;
-        try (InputStream finalXsltStream = SchematronFileValidator.class.getClassLoader().getResourceAsStream("final_xslt.xsl")) {
+        try (InputStream finalXsltStream = SchematronFileValidator.class.getClassLoader().getResourceAsStream(FINAL_XSLT_RESOURCE)) {
 
             if (finalXsltStream == null) {
                 throw new FileNotFoundException("XSLT file not found in resources.");
@@ -528,27 +779,88 @@ public class SchematronFileValidator {
         }
 
         try {
-            String xmlContent = new String(Files.readAllBytes(Paths.get(xmlFilePath)));
-
-            XdmNode source = processor.newDocumentBuilder().build(new StreamSource(new ByteArrayInputStream(xmlContent.getBytes())));
+            XdmNode source = processor.newDocumentBuilder().build(new StreamSource(xmlStream));
             XsltTransformer transformer = executable.load();
             transformer.setInitialContextNode(source);
+            if (ruleProfiler != null) {
+                transformer.setTraceListener(ruleProfiler.newTraceListener());
+            }
 
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
             Serializer serializer = processor.newSerializer(outputStream);
             serializer.setOutputProperty(Serializer.Property.METHOD, "xml");
             serializer.setOutputProperty(Serializer.Property.INDENT, "yes");
-            transformer.setDestination(serializer);
-            transformer.transform();
 
-            return outputStream.toString();
+            if (maxFailuresPerFile <= 0) {
+                transformer.setDestination(serializer);
+                transformer.transform();
+                return new SvrlOutput(outputStream.toString(), false);
+            }
+
+            // Abort the transformation once enough failures have been written; the SVRL so far is kept
+            final FailureCappingHandler cappingHandler = new FailureCappingHandler(serializer.getContentHandler(), maxFailuresPerFile);
+            transformer.setDestination(new SAXDestination(cappingHandler));
+            transformer.setErrorListener(new ErrorListener() {
+                @Override
+                public void warning(TransformerException exception) {
+                    logger.warn("XSLT warning: {}", exception.getMessageAndLocation());
+                }
+
+                @Override
+                public void error(TransformerException exception) {
+                    logger.warn("XSLT error: {}", exception.getMessageAndLocation());
+                }
+
+                @Override
+                public void fatalError(TransformerException exception) {
+                    if (!cappingHandler.isLimitReached()) {
+                        logger.error("XSLT fatal error: {}", exception.getMessageAndLocation());
+                    }
+                }
+            });
+            try {
+                transformer.transform();
+            } catch (SaxonApiException e) {
+                if (!cappingHandler.isLimitReached()) {
+                    throw e;
+                }
+            }
+            return new SvrlOutput(outputStream.toString(), cappingHandler.isLimitReached());
 
-        } catch (IOException | SaxonApiException e) {
+        } catch (SaxonApiException e) {
             logger.error("Error processing XML file.", e);
             throw e;
         }
     }
 
+    /**
+     * The SVRL produced for one document, and whether max_failures_per_file cut the validation short.
+     */
+    private static class SvrlOutput {
+        final String content;
+        final boolean capped;
+
+        SvrlOutput(String content, boolean capped) {
+            this.content = content;
+            this.capped = capped;
+        }
+    }
+
+    /**
+     * Creates a RuleProfiler indexed against the Schematron XSLT used for validation.
+     *
+     * @return A RuleProfiler for the final XSLT.
+     * @throws IOException If the XSLT cannot be found or indexed.
+     */
+    private static RuleProfiler createRuleProfiler() throws IOException {
+        try (InputStream finalXsltStream = SchematronFileValidator.class.getClassLoader().getResourceAsStream(FINAL_XSLT_RESOURCE)) {
+            if (finalXsltStream == null) {
+                throw new FileNotFoundException("XSLT file not found in resources.");
+            }
+            return new RuleProfiler(finalXsltStream);
+        }
+    }
+
     /**
      * Parses the SVRL content and returns the results as a JSON string.
      *
@@ -0,0 +1,305 @@
+package com.noajoliver;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * StratifiedSampler chooses a random subset of the files to validate and estimates, from the files validated,
+ * the share of all files that fail and the share in which each assertion fails, with 95% confidence intervals.
+ *
+ * <p>Files are grouped into strata by their subfolder inside an archive or by size, and the same fraction is
+ * sampled from every stratum.
+ * When the number of files is known up front the sample is drawn exactly with {@link #plan(XmlSource)};
+ * for streamed archives each file is selected independently with the sampling fraction as it goes by.
+ * Estimates combine the strata weighted by their population, with a finite population correction, and their
+ * confidence intervals are Wilson score intervals so that they remain useful when almost no file fails.</p>
+ */
+class StratifiedSampler {
+
+    private static final double Z_95 = 1.96;
+    private static final long[] SIZE_BOUNDS = {1L << 10, 1L << 12, 1L << 14, 1L << 16, 1L << 18, 1L << 20};
+    private static final String[] SIZE_LABELS = {"<1KB", "1-4KB", "4-16KB", "16-64KB", "64-256KB", "256KB-1MB", ">=1MB"};
+
+    private final double fraction;
+    private final String stratifyBy;
+    private final long seed;
+    private final Random random;
+    private Set<String> plannedNames;
+    private boolean stoppedEarly;
+    private final Map<String, Stratum> strata = new TreeMap<>();
+
+    /**
+     * Constructor to create a new StratifiedSampler from the triage options.
+     *
+     * @param options The triage options giving the sampling fraction, stratification and seed.
+     */
+    StratifiedSampler(TriageOptions options) {
+        this.fraction = options.sampleFraction;
+        this.stratifyBy = options.stratifyBy;
+        this.seed = options.sampleSeed;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Draws the sample up front from a source whose size is known, taking the sampling fraction of every
+     * stratum and at least one file per stratum.
+     *
+     * @param source The source to sample; it is iterated once without opening any document.
+     * @return The number of files in the sample.
+     * @throws IOException          If the source cannot be listed.
+     * @throws InterruptedException If the thread is interrupted while listing the source.
+     */
+    int plan(XmlSource source) throws IOException, InterruptedException {
+        final Map<String, List<String>> namesByStratum = new TreeMap<>();
+        // Only the filter sees the entries, so no document is read or buffered while listing
+        source.forEach(entry -> {
+            namesByStratum.computeIfAbsent(stratumOf(entry), k -> new ArrayList<>()).add(entry.name);
+            return false;
+        }, entry -> true);
+
+        plannedNames = new HashSet<>();
+        for (Map.Entry<String, List<String>> entry : namesByStratum.entrySet()) {
+            List<String> names = entry.getValue();
+            // The population is known now, whether or not every planned file is reached later
+            strata.computeIfAbsent(entry.getKey(), k -> new Stratum()).population = names.size();
+            Collections.shuffle(names, random);
+            int sampleSize = (int) Math.max(1, Math.round(names.size() * fraction));
+            plannedNames.addAll(names.subList(0, sampleSize));
+        }
+        return plannedNames.size();
+    }
+
+    /**
+     * Decides whether the entry is validated and, unless the sample was planned, counts it towards its
+     * stratum's population. Must be called once for every entry of the source, in order, from a single thread.
+     *
+     * @param entry The entry handed over by the source.
+     * @return true if the entry is part of the sample.
+     */
+    synchronized boolean select(XmlEntry entry) {
+        if (plannedNames != null) {
+            return plannedNames.contains(entry.name);
+        }
+        strata.computeIfAbsent(stratumOf(entry), k -> new Stratum()).population++;
+        return random.nextDouble() < fraction;
+    }
+
+    /**
+     * Records that the run stopped before the whole sample was validated, because max_failing_files was reached.
+     * The files validated by then were chosen by their failures as much as by the sample, so the summaries
+     * report the observed share without a confidence interval and say that the run stopped early.
+     */
+    synchronized void markStoppedEarly() {
+        stoppedEarly = true;
+    }
+
+    /**
+     * Records the outcome of a sampled file.
+     *
+     * @param entry               The validated entry.
+     * @param failing             Whether the file had errors or could not be processed.
+     * @param failedAssertionIds  The IDs of the assertions that failed at least once in the file.
+     */
+    synchronized void recordResult(XmlEntry entry, boolean failing, Collection<String> failedAssertionIds) {
+        Stratum stratum = strata.computeIfAbsent(stratumOf(entry), k -> new Stratum());
+        stratum.validated++;
+        if (failing) {
+            stratum.failing++;
+        }
+        for (String assertionId : failedAssertionIds) {
+            stratum.filesByAssertion.merge(assertionId, 1L, Long::sum);
+        }
+    }
+
+    /**
+     * Returns a one-line summary of the estimated share of failing files.
+     *
+     * @return The summary, suitable for display in the GUI.
+     */
+    synchronized String summary() {
+        Estimate estimate = estimate(stratum -> stratum.failing);
+        if (stoppedEarly) {
+            return String.format("Sampled %d of %d files before stopping early; failing share among them: %.1f%%"
+                            + " (biased towards failing files, no confidence interval); sample_seed = %d",
+                    totalValidated(), totalPopulation(), estimate.rate * 100, seed);
+        }
+        return String.format("Sampled %d of %d files; estimated failing files: %.1f%% (95%% CI %.1f%% - %.1f%%);"
+                        + " sample_seed = %d",
+                totalValidated(), totalPopulation(),
+                estimate.rate * 100, estimate.low * 100, estimate.high * 100, seed);
+    }
+
+    /**
+     * Writes the estimates as a CSV file: the overall share of failing files, the share per stratum,
+     * and the share of files failing each assertion, most frequent first.
+     *
+     * @param fileName The CSV file to write.
+     * @throws IOException If an I/O error occurs.
+     */
+    synchronized void writeSummaryCsv(String fileName) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+            writer.write("level,id,estimated_rate,ci95_low,ci95_high,validated_files,population_files,stopped_early,sample_seed\n");
+            writeRow(writer, "overall", "failing_files", estimate(stratum -> stratum.failing),
+                    totalValidated(), totalPopulation());
+
+            for (Map.Entry<String, Stratum> entry : strata.entrySet()) {
+                Stratum stratum = entry.getValue();
+                if (stratum.validated == 0) {
+                    continue;
+                }
+                writeRow(writer, "stratum", entry.getKey(),
+                        estimate(s -> s.failing, Collections.singletonList(stratum)),
+                        stratum.validated, stratum.population);
+            }
+
+            Set<String> assertionIds = new HashSet<>();
+            for (Stratum stratum : strata.values()) {
+                assertionIds.addAll(stratum.filesByAssertion.keySet());
+            }
+            List<Map.Entry<String, Estimate>> assertions = new ArrayList<>();
+            for (final String assertionId : assertionIds) {
+                assertions.add(new AbstractMap.SimpleEntry<>(assertionId,
+                        estimate(stratum -> stratum.filesByAssertion.getOrDefault(assertionId, 0L))));
+            }
+            assertions.sort((a, b) -> Double.compare(b.getValue().rate, a.getValue().rate));
+            for (Map.Entry<String, Estimate> assertion : assertions) {
+                writeRow(writer, "assertion", assertion.getKey(), assertion.getValue(), totalValidated(), totalPopulation());
+            }
+        }
+    }
+
+    private void writeRow(BufferedWriter writer, String level, String id, Estimate estimate,
+                          long validated, long population) throws IOException {
+        // Intervals are left empty when the run stopped early, since the sample no longer supports them
+        writer.write(String.format(Locale.ROOT, "%s,%s,%.4f,%s,%s,%d,%d,%b,%d\n",
+                level,
+                id.contains(",") ? "\"" + id.replace("\"", "\"\"") + "\"" : id,
+                estimate.rate,
+                stoppedEarly ? "" : String.format(Locale.ROOT, "%.4f", estimate.low),
+                stoppedEarly ? "" : String.format(Locale.ROOT, "%.4f", estimate.high),
+                validated, population, stoppedEarly, seed));
+    }
+
+    private long totalValidated() {
+        long total = 0;
+        for (Stratum stratum : strata.values()) {
+            total += stratum.validated;
+        }
+        return total;
+    }
+
+    private long totalPopulation() {
+        long total = 0;
+        for (Stratum stratum : strata.values()) {
+            total += stratum.population;
+        }
+        return total;
+    }
+
+    private Estimate estimate(HitCounter hits) {
+        return estimate(hits, strata.values());
+    }
+
+    /**
+     * Computes the stratified estimate of a proportion and its 95% Wilson score interval.
+     * Strata without any validated file are left out and the remaining strata reweighted.
+     *
+     * <p>The Wilson interval stays meaningful when no or every sampled file is a hit, where a normal approximation
+     * collapses to a single point. Over several strata it is computed from the effective sample size, the number
+     * of simple random draws giving the same variance as the stratified sample; a stratum whose every file was
+     * validated contributes no sampling error.</p>
+     *
+     * @param hits   The number of validated files in a stratum that count as a hit.
+     * @param groups The strata to combine.
+     * @return The estimate.
+     */
+    private static Estimate estimate(HitCounter hits, Collection<Stratum> groups) {
+        long coveredPopulation = 0;
+        long validated = 0;
+        boolean census = true;
+        for (Stratum stratum : groups) {
+            if (stratum.validated > 0) {
+                coveredPopulation += stratum.population;
+                validated += stratum.validated;
+                census &= stratum.validated >= stratum.population;
+            }
+        }
+        if (coveredPopulation == 0) {
+            return new Estimate(0, 0, 0);
+        }
+
+        double rate = 0;
+        double variance = 0;
+        for (Stratum stratum : groups) {
+            if (stratum.validated == 0) {
+                continue;
+            }
+            double weight = (double) stratum.population / coveredPopulation;
+            double p = (double) hits.count(stratum) / stratum.validated;
+            double finitePopulationCorrection = Math.max(0, 1 - (double) stratum.validated / stratum.population);
+            rate += weight * p;
+            variance += weight * weight * finitePopulationCorrection * p * (1 - p) / Math.max(1, stratum.validated - 1);
+        }
+        if (census) {
+            return new Estimate(rate, rate, rate);
+        }
+
+        // Without variance to go by (every stratum all hits or all misses) fall back to the plain sample size
+        double effectiveSize = variance > 0 ? Math.max(1, rate * (1 - rate) / variance) : validated;
+        double z2 = Z_95 * Z_95;
+        double denominator = 1 + z2 / effectiveSize;
+        double center = (rate + z2 / (2 * effectiveSize)) / denominator;
+        double margin = Z_95 / denominator
+                * Math.sqrt(rate * (1 - rate) / effectiveSize + z2 / (4 * effectiveSize * effectiveSize));
+        return new Estimate(rate, Math.max(0, center - margin), Math.min(1, center + margin));
+    }
+
+    private String stratumOf(XmlEntry entry) {
+        if (TriageOptions.STRATIFY_FOLDER.equals(stratifyBy)) {
+            int slash = entry.name.lastIndexOf('/');
+            return slash >= 0 ? entry.name.substring(0, slash) : "/";
+        } else if (TriageOptions.STRATIFY_SIZE.equals(stratifyBy)) {
+            for (int i = 0; i < SIZE_BOUNDS.length; i++) {
+                if (entry.size < SIZE_BOUNDS[i]) {
+                    return SIZE_LABELS[i];
+                }
+            }
+            return SIZE_LABELS[SIZE_LABELS.length - 1];
+        }
+        return "all";
+    }
+
+    /**
+     * Counts the hits of a proportion within a stratum.
+     */
+    private interface HitCounter {
+        long count(Stratum stratum);
+    }
+
+    /**
+     * Population and sample counts of one stratum.
+     */
+    private static class Stratum {
+        long population;
+        long validated;
+        long failing;
+        final Map<String, Long> filesByAssertion = new HashMap<>();
+    }
+
+    /**
+     * An estimated proportion with its 95% confidence interval.
+     */
+    private static class Estimate {
+        final double rate;
+        final double low;
+        final double high;
+
+        Estimate(double rate, double low, double high) {
+            this.rate = rate;
+            this.low = low;
+            this.high = high;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.noajoliver;
+
+import org.ini4j.Ini;
+import org.ini4j.Profile;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * TriageOptions holds the settings for fast triage runs, read from the [triage] section of an INI file.
+ * Every mode is off unless configured, in which case all files are fully validated as usual.
+ *
+ * <pre>
+ * [triage]
+ * max_failures_per_file = 10
+ * max_failing_files = 100
+ * sample_fraction = 0.05
+ * stratify_by = folder
+ * sample_seed = 42
+ * </pre>
+ */
+class TriageOptions {
+
+    static final String STRATIFY_NONE = "none";
+    static final String STRATIFY_FOLDER = "folder";
+    static final String STRATIFY_SIZE = "size";
+
+    /** Stop validating a file after this many failed assertions; 0 validates every file completely. */
+    final int maxFailuresPerFile;
+    /** Stop the whole run after this many files with errors; 0 never stops early. */
+    final int maxFailingFiles;
+    /** Fraction of files to validate; 1 validates every file. */
+    final double sampleFraction;
+    /** How files are grouped before sampling: none, folder (archive subfolders, archive input only) or size. */
+    final String stratifyBy;
+    /** Seed for the random sample, so that a triage run can be repeated; random unless configured, and always reported. */
+    final long sampleSeed;
+
+    /**
+     * Constructor to create a new TriageOptions object.
+     *
+     * @param maxFailuresPerFile The failed assertions after which a file is no longer validated, or 0.
+     * @param maxFailingFiles    The failing files after which the run stops, or 0.
+     * @param sampleFraction     The fraction of files to validate, in (0, 1].
+     * @param stratifyBy         The stratification of the sample: none, folder or size.
+     * @param sampleSeed         The seed of the random sample.
+     */
+    TriageOptions(int maxFailuresPerFile, int maxFailingFiles, double sampleFraction, String stratifyBy, long sampleSeed) {
+        this.maxFailuresPerFile = maxFailuresPerFile;
+        this.maxFailingFiles = maxFailingFiles;
+        this.sampleFraction = sampleFraction;
+        this.stratifyBy = stratifyBy;
+        this.sampleSeed = sampleSeed;
+    }
+
+    /**
+     * Reads the triage options from the [triage] section of an INI file.
+     *
+     * @param configFile The INI file to read.
+     * @return The configured options, or options with every mode off if the file or section does not exist.
+     * @throws IOException If the INI file cannot be read or contains an invalid setting.
+     */
+    static TriageOptions fromConfig(File configFile) throws IOException {
+        Profile.Section section = configFile.isFile() ? new Ini(configFile).get("triage") : null;
+        if (section == null) {
+            return new TriageOptions(0, 0, 1.0, STRATIFY_NONE, System.nanoTime());
+        }
+
+        int maxFailuresPerFile = getInt(section, "max_failures_per_file", 0);
+        int maxFailingFiles = getInt(section, "max_failing_files", 0);
+        double sampleFraction = getNumber(section, "sample_fraction", 1);
+        long sampleSeed = getLong(section, "sample_seed", System.nanoTime());
+        String stratifyBy = section.get("stratify_by") != null ? section.get("stratify_by").trim().toLowerCase() : STRATIFY_NONE;
+
+        if (maxFailuresPerFile < 0 || maxFailingFiles < 0) {
+            throw new IOException("max_failures_per_file and max_failing_files in [triage] section must not be negative");
+        }
+        if (!(sampleFraction > 0 && sampleFraction <= 1)) {
+            throw new IOException("sample_fraction in [triage] section must be greater than 0 and at most 1: " + sampleFraction);
+        }
+        if (!STRATIFY_NONE.equals(stratifyBy) && !STRATIFY_FOLDER.equals(stratifyBy) && !STRATIFY_SIZE.equals(stratifyBy)) {
+            throw new IOException("stratify_by in [triage] section must be none, folder or size: " + stratifyBy);
+        }
+
+        return new TriageOptions(maxFailuresPerFile, maxFailingFiles, sampleFraction, stratifyBy, sampleSeed);
+    }
+
+    private static double getNumber(Profile.Section section, String key, double defaultValue) throws IOException {
+        String value = section.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + key + " in [triage] section: " + value);
+        }
+    }
+
+    private static int getInt(Profile.Section section, String key, int defaultValue) throws IOException {
+        String value = section.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + key + " in [triage] section, expected a whole number: " + value);
+        }
+    }
+
+    private static long getLong(Profile.Section section, String key, long defaultValue) throws IOException {
+        String value = section.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + key + " in [triage] section, expected a whole number: " + value);
+        }
+    }
+
+    /**
+     * Returns whether only a sample of the files is validated.
+     *
+     * @return true if sample_fraction is below 1.
+     */
+    boolean isSampling() {
+        return sampleFraction < 1;
+    }
+}
@@ -0,0 +1,46 @@
+package com.noajoliver;
+
+import org.json.JSONArray;
+
+import java.util.Map;
+
+/**
+ * The ValidationResult class holds everything written to the CSV reports for a single validated file.
+ */
+class ValidationResult {
+    final String fileName;
+    final long fileSize;
+    final long startTime;
+    final long endTime;
+    final int totalErrors;
+    final int totalWarnings;
+    final Map<String, Integer> errorCounts;
+    final Map<String, Integer> warningCounts;
+    final JSONArray assertions;
+
+    /**
+     * Constructor to create a new ValidationResult object.
+     *
+     * @param fileName      The name of the file, or its entry path inside an archive.
+     * @param fileSize      The size of the file in bytes.
+     * @param startTime     The processing start time in milliseconds since the epoch.
+     * @param endTime       The processing end time in milliseconds since the epoch.
+     * @param totalErrors   The number of failed assertions of type error.
+     * @param totalWarnings The number of failed assertions of type warning.
+     * @param errorCounts   The number of errors per assertion ID.
+     * @param warningCounts The number of warnings per assertion ID.
+     * @param assertions    The failed assertions, as produced by parseSvrlContent.
+     */
+    ValidationResult(String fileName, long fileSize, long startTime, long endTime, int totalErrors, int totalWarnings,
+                     Map<String, Integer> errorCounts, Map<String, Integer> warningCounts, JSONArray assertions) {
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.totalErrors = totalErrors;
+        this.totalWarnings = totalWarnings;
+        this.errorCounts = errorCounts;
+        this.warningCounts = warningCounts;
+        this.assertions = assertions;
+    }
+}
@@ -0,0 +1,39 @@
+package com.noajoliver;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The XmlEntry class represents a single XML document supplied by an XmlSource.
+ * The name is the file name for folder input, or the entry path inside the archive for archive input.
+ */
+abstract class XmlEntry {
+    final String name;
+    final long size;
+
+    /**
+     * Constructor to create a new XmlEntry object.
+     *
+     * @param name The name reported in the file_name column of the CSV outputs.
+     * @param size The uncompressed size of the document in bytes.
+     */
+    XmlEntry(String name, long size) {
+        this.name = name;
+        this.size = size;
+    }
+
+    /**
+     * Opens a stream over the document's content.
+     *
+     * @return An InputStream over the XML document.
+     * @throws IOException If the document cannot be read.
+     */
+    abstract InputStream open() throws IOException;
+
+    /**
+     * Releases any resources held for this entry once it has been validated.
+     * Must be called exactly once per entry, whether or not validation succeeded.
+     */
+    void release() {
+    }
+}
@@ -0,0 +1,263 @@
+package com.noajoliver;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * XmlSource supplies the XML documents to be validated.
+ * Documents can come from a folder on disk or be streamed straight out of a ZIP, TAR or TAR.GZ archive,
+ * so that large batches can be validated without extracting them to disk first.
+ */
+abstract class XmlSource implements Closeable {
+
+    /**
+     * Opens the given folder or archive as a source of XML documents.
+     *
+     * @param input     A folder containing XML files, or a .zip, .tar, .tar.gz or .tgz archive.
+     * @param readAhead The maximum number of archive entries held in memory while waiting to be validated.
+     * @return An XmlSource over the XML documents in the input.
+     * @throws IOException If the input cannot be opened or is not a supported format.
+     */
+    static XmlSource open(File input, int readAhead) throws IOException {
+        if (input.isDirectory()) {
+            return new FolderSource(input);
+        }
+
+        String name = input.getName().toLowerCase();
+        if (name.endsWith(".zip")) {
+            return new ZipSource(input);
+        } else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+            return new TarSource(input, true, readAhead);
+        } else if (name.endsWith(".tar")) {
+            return new TarSource(input, false, readAhead);
+        }
+        throw new IOException("Unsupported input, expected a folder or a ZIP/TAR/TAR.GZ archive: " + input.getName());
+    }
+
+    /**
+     * Returns the number of XML documents in this source.
+     *
+     * @return The number of documents, or -1 if it is only known once the whole archive has been streamed.
+     */
+    abstract int count();
+
+    /**
+     * Hands every XML document in this source to the consumer, in archive or folder order, until the consumer
+     * returns false. Streaming sources block here while the read-ahead limit is reached, until earlier entries are released.
+     *
+     * @param consumer The consumer receiving each document.
+     * @throws IOException          If reading the source fails.
+     * @throws InterruptedException If the thread is interrupted while waiting for read-ahead space.
+     */
+    final void forEach(EntryConsumer consumer) throws IOException, InterruptedException {
+        forEach(entry -> true, consumer);
+    }
+
+    /**
+     * Hands the XML documents accepted by the filter to the consumer, in archive or folder order, until the consumer
+     * returns false. The filter sees each entry's name and size before any of its content is read, so streaming
+     * sources skip rejected entries without buffering them; rejected entries need not be released.
+     *
+     * @param filter   Decides, for every document in order, whether it is handed to the consumer.
+     * @param consumer The consumer receiving each accepted document.
+     * @throws IOException          If reading the source fails.
+     * @throws InterruptedException If the thread is interrupted while waiting for read-ahead space.
+     */
+    abstract void forEach(Predicate<XmlEntry> filter, EntryConsumer consumer) throws IOException, InterruptedException;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    private static boolean isXmlName(String name) {
+        return name.toLowerCase().endsWith(".xml");
+    }
+
+    /**
+     * Callback receiving each XML document of a source.
+     */
+    interface EntryConsumer {
+        /**
+         * Receives the next document. The consumer is responsible for releasing the entry.
+         *
+         * @param entry The next XML document.
+         * @return true to continue with the next document, false to stop reading the source.
+         */
+        boolean accept(XmlEntry entry) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Plain XML files directly inside a folder.
+     */
+    private static class FolderSource extends XmlSource {
+        private final File[] xmlFiles;
+
+        FolderSource(File folder) {
+            File[] files = folder.listFiles((dir, name) -> isXmlName(name));
+            this.xmlFiles = files != null ? files : new File[0];
+        }
+
+        @Override
+        int count() {
+            return xmlFiles.length;
+        }
+
+        @Override
+        void forEach(Predicate<XmlEntry> filter, EntryConsumer consumer) throws IOException, InterruptedException {
+            for (final File xmlFile : xmlFiles) {
+                XmlEntry entry = new XmlEntry(xmlFile.getName(), xmlFile.length()) {
+                    @Override
+                    InputStream open() throws IOException {
+                        return new FileInputStream(xmlFile);
+                    }
+                };
+                if (filter.test(entry) && !consumer.accept(entry)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * XML entries of a ZIP archive. Entries are listed from the central directory up front and
+     * each one is decompressed by the worker thread that validates it, so decompression runs in parallel.
+     */
+    private static class ZipSource extends XmlSource {
+        private final ZipFile zipFile;
+        private final List<ZipEntry> xmlEntries = new ArrayList<>();
+
+        ZipSource(File archive) throws IOException {
+            this.zipFile = new ZipFile(archive);
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && isXmlName(entry.getName())) {
+                    xmlEntries.add(entry);
+                }
+            }
+        }
+
+        @Override
+        int count() {
+            return xmlEntries.size();
+        }
+
+        @Override
+        void forEach(Predicate<XmlEntry> filter, EntryConsumer consumer) throws IOException, InterruptedException {
+            for (final ZipEntry zipEntry : xmlEntries) {
+                XmlEntry entry = new XmlEntry(zipEntry.getName(), zipEntry.getSize()) {
+                    @Override
+                    InputStream open() throws IOException {
+                        return zipFile.getInputStream(zipEntry);
+                    }
+                };
+                if (filter.test(entry) && !consumer.accept(entry)) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * XML entries of a TAR or TAR.GZ archive. The format can only be read sequentially, so a single
+     * reader buffers each entry in memory and a semaphore bounds how many buffered entries may be waiting.
+     */
+    private static class TarSource extends XmlSource {
+        private static final long MAX_BUFFERED_SIZE = Integer.MAX_VALUE - 8; // Largest byte[] the JVM can allocate
+
+        private final File archive;
+        private final boolean gzipped;
+        private final Semaphore readAheadPermits;
+
+        TarSource(File archive, boolean gzipped, int readAhead) {
+            this.archive = archive;
+            this.gzipped = gzipped;
+            this.readAheadPermits = new Semaphore(readAhead);
+        }
+
+        @Override
+        int count() {
+            return -1;
+        }
+
+        @Override
+        void forEach(Predicate<XmlEntry> filter, EntryConsumer consumer) throws IOException, InterruptedException {
+            InputStream in = new BufferedInputStream(new FileInputStream(archive), 1 << 16);
+            if (gzipped) {
+                in = new GZIPInputStream(in, 1 << 16);
+            }
+
+            try (TarArchiveInputStream tarStream = new TarArchiveInputStream(in)) {
+                TarArchiveEntry entry;
+                while ((entry = tarStream.getNextTarEntry()) != null) {
+                    if (!entry.isFile() || !isXmlName(entry.getName())) {
+                        continue;
+                    }
+
+                    // Entries the filter rejects are skipped in the stream without taking a permit or being copied
+                    BufferedTarEntry xmlEntry = new BufferedTarEntry(entry.getName(), entry.getSize(), readAheadPermits);
+                    if (!filter.test(xmlEntry)) {
+                        continue;
+                    }
+
+                    readAheadPermits.acquire();
+                    // An entry too large for a byte[] is left unread; opening it fails, and the rest of the archive is still read
+                    if (entry.getSize() <= MAX_BUFFERED_SIZE) {
+                        try {
+                            xmlEntry.content = new byte[(int) entry.getSize()];
+                            new DataInputStream(tarStream).readFully(xmlEntry.content);
+                        } catch (IOException | RuntimeException e) {
+                            readAheadPermits.release();
+                            throw e;
+                        }
+                    }
+
+                    if (!consumer.accept(xmlEntry)) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * A TAR entry whose content is buffered only once the filter has accepted it, and only if it fits in a byte[].
+         */
+        private static class BufferedTarEntry extends XmlEntry {
+            private final Semaphore readAheadPermits;
+            byte[] content;
+
+            BufferedTarEntry(String name, long size, Semaphore readAheadPermits) {
+                super(name, size);
+                this.readAheadPermits = readAheadPermits;
+            }
+
+            @Override
+            InputStream open() throws IOException {
+                if (content == null) {
+                    throw new IOException("TAR entry too large to buffer in memory: " + size + " bytes");
+                }
+                return new ByteArrayInputStream(content);
+            }
+
+            @Override
+            void release() {
+                readAheadPermits.release();
+            }
+        }
+    }
+}
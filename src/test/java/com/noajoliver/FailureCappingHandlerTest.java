@@ -0,0 +1,114 @@
+package com.noajoliver;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests FailureCappingHandler by replaying SVRL through it into a serializer.
+ */
+public class FailureCappingHandlerTest {
+
+    private static final String SVRL_NS = "http://purl.oclc.org/dsdl/svrl";
+    private static final String SVRL = "<svrl:schematron-output xmlns:svrl=\"" + SVRL_NS + "\">"
+            + "<svrl:active-pattern id=\"p-1\"/>"
+            + "<svrl:fired-rule id=\"r-1-errors\" context=\"a\"/>"
+            + "<svrl:failed-assert id=\"a-1\" test=\"b\" location=\"/a[1]\"><svrl:text>one</svrl:text></svrl:failed-assert>"
+            + "<svrl:failed-assert id=\"a-2\" test=\"c\" location=\"/a[1]\"><svrl:text>two</svrl:text></svrl:failed-assert>"
+            + "<svrl:failed-assert id=\"a-3\" test=\"d\" location=\"/a[1]\"><svrl:text>three</svrl:text></svrl:failed-assert>"
+            + "<svrl:fired-rule id=\"r-2-warnings\" context=\"b\"/>"
+            + "<svrl:failed-assert id=\"a-4\" test=\"e\" location=\"/a[1]/b[1]\"><svrl:text>four</svrl:text></svrl:failed-assert>"
+            + "</svrl:schematron-output>";
+
+    @Test
+    public void keepsFirstFailuresAndClosesTheSvrl() throws Exception {
+        StringWriter output = new StringWriter();
+        FailureCappingHandler handler = newHandler(output, 2);
+        try {
+            replay(handler, SVRL);
+            fail("Expected the transformation to be aborted");
+        } catch (SAXException expected) {
+            // Thrown to stop the transformation once the limit is reached
+        }
+
+        assertTrue(handler.isLimitReached());
+        Document capped = parse(output.toString());
+        assertEquals(2, capped.getElementsByTagNameNS(SVRL_NS, "failed-assert").getLength());
+        // The fired rule after the last kept failure tells parseSvrlContent which rule the failures belong to
+        assertEquals(2, capped.getElementsByTagNameNS(SVRL_NS, "fired-rule").getLength());
+        assertEquals("a-2", ((Element) capped.getElementsByTagNameNS(SVRL_NS, "failed-assert").item(1)).getAttribute("id"));
+    }
+
+    @Test
+    public void closesTheSvrlWhenNoFiredRuleFollows() throws Exception {
+        StringWriter output = new StringWriter();
+        FailureCappingHandler handler = newHandler(output, 3);
+        try {
+            replay(handler, SVRL.replace("<svrl:fired-rule id=\"r-2-warnings\" context=\"b\"/>", ""));
+            fail("Expected the transformation to be aborted");
+        } catch (SAXException expected) {
+            // The fourth failure is suppressed and the SVRL closed at the end of its root element
+        }
+
+        assertTrue(handler.isLimitReached());
+        Document capped = parse(output.toString());
+        assertEquals(3, capped.getElementsByTagNameNS(SVRL_NS, "failed-assert").getLength());
+    }
+
+    @Test
+    public void passesSvrlWithExactlyTheLimitThroughUnchanged() throws Exception {
+        StringWriter output = new StringWriter();
+        FailureCappingHandler handler = newHandler(output, 4);
+        replay(handler, SVRL);
+
+        assertFalse(handler.isLimitReached());
+        assertEquals(4, parse(output.toString()).getElementsByTagNameNS(SVRL_NS, "failed-assert").getLength());
+    }
+
+    @Test
+    public void passesSvrlBelowTheLimitThroughUnchanged() throws Exception {
+        StringWriter output = new StringWriter();
+        FailureCappingHandler handler = newHandler(output, 10);
+        replay(handler, SVRL);
+
+        assertFalse(handler.isLimitReached());
+        assertEquals(4, parse(output.toString()).getElementsByTagNameNS(SVRL_NS, "failed-assert").getLength());
+    }
+
+    private static FailureCappingHandler newHandler(StringWriter output, int maxFailures) throws Exception {
+        TransformerHandler serializer = ((SAXTransformerFactory) TransformerFactory.newInstance()).newTransformerHandler();
+        serializer.setResult(new StreamResult(output));
+        return new FailureCappingHandler(serializer, maxFailures);
+    }
+
+    private static void replay(FailureCappingHandler handler, String svrl) throws Exception {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(handler);
+        reader.parse(new InputSource(new StringReader(svrl)));
+    }
+
+    private static Document parse(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+}
@@ -0,0 +1,177 @@
+package com.noajoliver;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests JdbcResultSink against an in-memory H2 database.
+ */
+public class JdbcResultSinkTest {
+
+    private static final AtomicInteger databaseCounter = new AtomicInteger();
+    private static final String PREFIX = "test_";
+
+    private JdbcDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:sink" + databaseCounter.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+    }
+
+    @Test
+    public void createTablesCreatesEmptyTablesAndCanRunAgain() throws Exception {
+        new JdbcResultSink(dataSource, 10, PREFIX, true).close();
+        new JdbcResultSink(dataSource, 10, PREFIX, true).close();
+
+        for (String table : new String[]{"metrics", "counts", "detailed_counts", "assertions", "processing_errors"}) {
+            assertEquals(table, 0, count("SELECT COUNT(*) FROM " + PREFIX + table));
+        }
+    }
+
+    @Test
+    public void fileValidatedWritesMoreRowsThanBatchSize() throws Exception {
+        Map<String, Integer> errorCounts = new LinkedHashMap<>();
+        for (int i = 1; i <= 5; i++) {
+            errorCounts.put("e-" + i, i);
+        }
+        Map<String, Integer> warningCounts = new LinkedHashMap<>();
+        warningCounts.put("w-1", 1);
+        warningCounts.put("w-2", 2);
+
+        JSONArray assertions = new JSONArray();
+        for (int i = 0; i < 7; i++) {
+            assertions.put(assertion("e-" + (i % 5 + 1), "error"));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertions.put(assertion("w-" + (i % 2 + 1), "warning"));
+        }
+        assertions.put(assertion("i-1", "info"));
+
+        try (JdbcResultSink sink = new JdbcResultSink(dataSource, 3, PREFIX, true)) {
+            sink.fileValidated(new ValidationResult("a.xml", 1234, 1000, 1500, 7, 3,
+                    errorCounts, warningCounts, assertions));
+        }
+
+        assertEquals(1, count("SELECT COUNT(*) FROM " + PREFIX + "metrics WHERE file_name = 'a.xml'"
+                + " AND file_size = 1234 AND duration_ms = 500"));
+        assertEquals(1, count("SELECT COUNT(*) FROM " + PREFIX + "counts WHERE file_name = 'a.xml'"
+                + " AND error_count = 7 AND warning_count = 3"));
+        assertEquals(7, count("SELECT COUNT(*) FROM " + PREFIX + "detailed_counts"));
+        assertEquals(15, count("SELECT SUM(error_count) FROM " + PREFIX + "detailed_counts"));
+        assertEquals(10, count("SELECT COUNT(*) FROM " + PREFIX + "assertions"));
+        assertEquals(0, count("SELECT COUNT(*) FROM " + PREFIX + "assertions WHERE type = 'info'"));
+        assertEquals(1, count("SELECT COUNT(DISTINCT run_id) FROM " + PREFIX + "assertions"));
+    }
+
+    @Test
+    public void fileValidatedWritesEveryFileWhenGroupedAcrossTransactions() throws Exception {
+        Map<String, Integer> errorCounts = Collections.singletonMap("e-1", 1);
+        try (JdbcResultSink sink = new JdbcResultSink(dataSource, 7, PREFIX, true)) {
+            for (int i = 0; i < 50; i++) {
+                sink.fileValidated(new ValidationResult("f" + i + ".xml", 10, 0, 1, 1, 0,
+                        errorCounts, Collections.<String, Integer>emptyMap(),
+                        new JSONArray().put(assertion("e-1", "error"))));
+                sink.fileFailed("broken" + i + ".xml", "Premature end of file.");
+            }
+        }
+
+        assertEquals(50, count("SELECT COUNT(DISTINCT file_name) FROM " + PREFIX + "metrics"));
+        assertEquals(50, count("SELECT COUNT(*) FROM " + PREFIX + "counts"));
+        assertEquals(50, count("SELECT COUNT(*) FROM " + PREFIX + "detailed_counts"));
+        assertEquals(50, count("SELECT COUNT(*) FROM " + PREFIX + "assertions"));
+        assertEquals(50, count("SELECT COUNT(*) FROM " + PREFIX + "processing_errors"));
+    }
+
+    @Test
+    public void failingFileIsRolledBackWithoutLosingOtherFiles() throws Exception {
+        Map<String, Integer> errorCounts = Collections.singletonMap("e-1", 1);
+        JSONArray goodAssertions = new JSONArray().put(assertion("e-1", "error"));
+
+        StringBuilder tooLongId = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            tooLongId.append('x');
+        }
+        JSONArray badAssertions = new JSONArray()
+                .put(assertion("e-1", "error"))
+                .put(assertion(tooLongId.toString(), "error"));
+
+        JdbcResultSink sink = new JdbcResultSink(dataSource, 1000, PREFIX, true);
+        try {
+            sink.fileValidated(new ValidationResult("good1.xml", 10, 0, 1, 1, 0,
+                    errorCounts, Collections.<String, Integer>emptyMap(), goodAssertions));
+            sink.fileValidated(new ValidationResult("bad.xml", 10, 0, 1, 2, 0,
+                    errorCounts, Collections.<String, Integer>emptyMap(), badAssertions));
+            sink.fileValidated(new ValidationResult("good2.xml", 10, 0, 1, 1, 0,
+                    errorCounts, Collections.<String, Integer>emptyMap(), goodAssertions));
+        } finally {
+            sink.close();
+        }
+
+        // The assertion_id column rejects the second assertion of bad.xml after its other rows were sent
+        assertEquals(1, sink.unwrittenFiles());
+        for (String table : new String[]{"metrics", "counts", "detailed_counts", "assertions"}) {
+            assertEquals(table, 0, count("SELECT COUNT(*) FROM " + PREFIX + table + " WHERE file_name = 'bad.xml'"));
+            assertEquals(table, 2, count("SELECT COUNT(*) FROM " + PREFIX + table + " WHERE file_name LIKE 'good%'"));
+        }
+    }
+
+    @Test
+    public void fileFailedRecordsTruncatedErrorMessage() throws Exception {
+        StringBuilder longMessage = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            longMessage.append('m');
+        }
+
+        try (JdbcResultSink sink = new JdbcResultSink(dataSource, 10, PREFIX, true)) {
+            sink.fileFailed("broken.xml", "Premature end of file.");
+            sink.fileFailed("huge.xml", longMessage.toString());
+        }
+
+        assertEquals(1, count("SELECT COUNT(*) FROM " + PREFIX + "processing_errors"
+                + " WHERE file_name = 'broken.xml' AND error_message = 'Premature end of file.'"));
+        assertEquals(4000, count("SELECT LENGTH(error_message) FROM " + PREFIX + "processing_errors"
+                + " WHERE file_name = 'huge.xml'"));
+        assertEquals(0, count("SELECT COUNT(*) FROM " + PREFIX + "metrics"));
+    }
+
+    private static JSONObject assertion(String assertionId, String type) {
+        return new JSONObject()
+                .put("assertionId", assertionId)
+                .put("description", "  Description of\n " + assertionId)
+                .put("path", "/root/element[1]")
+                .put("type", type);
+    }
+
+    private long count(String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
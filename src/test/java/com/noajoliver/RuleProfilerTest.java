@@ -0,0 +1,88 @@
+package com.noajoliver;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.XsltCompiler;
+import net.sf.saxon.s9api.XsltTransformer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests RuleProfiler by running small Schematron-style stylesheets through Saxon with tracing enabled,
+ * so that the stylesheet index is checked against the line numbers Saxon actually reports.
+ */
+public class RuleProfilerTest {
+
+    private static final String DOCUMENT = "<root><a/><a><b/></a><a/></root>";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void indexesIdsWrittenAsLiteralAttributes() throws Exception {
+        assertExpectedProfile(profile("/profiler/literal-attributes.xsl"));
+    }
+
+    @Test
+    public void indexesIdsWrittenByXslAttribute() throws Exception {
+        assertExpectedProfile(profile("/profiler/xsl-attribute.xsl"));
+    }
+
+    /**
+     * Both stylesheets describe one pattern with one rule and one assertion, fired on each of the three a elements.
+     */
+    private static void assertExpectedProfile(Map<String, Long> evaluationsByRow) {
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("pattern,p-1,p-1", 3L);
+        expected.put("rule,r-1-errors,p-1", 3L);
+        expected.put("assertion,a-1,p-1", 3L);
+        assertEquals(expected, evaluationsByRow);
+    }
+
+    /**
+     * Validates the test document with the given stylesheet and returns the evaluations of each profile row,
+     * keyed by its level, ID and pattern ID.
+     */
+    private Map<String, Long> profile(String stylesheetResource) throws Exception {
+        RuleProfiler profiler;
+        try (InputStream stylesheet = getClass().getResourceAsStream(stylesheetResource)) {
+            profiler = new RuleProfiler(stylesheet);
+        }
+
+        Processor processor = new Processor(false);
+        XsltCompiler compiler = processor.newXsltCompiler();
+        compiler.setCompileWithTracing(true);
+        XsltTransformer transformer = compiler
+                .compile(new StreamSource(getClass().getResource(stylesheetResource).toString()))
+                .load();
+        transformer.setSource(new StreamSource(new StringReader(DOCUMENT)));
+        transformer.setTraceListener(profiler.newTraceListener());
+        transformer.setDestination(processor.newSerializer(new ByteArrayOutputStream()));
+        transformer.transform();
+
+        File csv = temporaryFolder.newFile("profile.csv");
+        profiler.writeCsv(csv.getPath());
+
+        List<String> lines = Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8);
+        assertEquals("rank,level,id,pattern_id,total_time_ms,evaluations,avg_time_us", lines.get(0));
+        Map<String, Long> evaluationsByRow = new HashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            evaluationsByRow.put(fields[1] + "," + fields[2] + "," + fields[3], Long.parseLong(fields[5]));
+        }
+        return evaluationsByRow;
+    }
+}
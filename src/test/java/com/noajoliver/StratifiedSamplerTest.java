@@ -0,0 +1,138 @@
+package com.noajoliver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the estimates StratifiedSampler writes to its summary CSV.
+ */
+public class StratifiedSamplerTest {
+
+    private static final int FILES = 500;
+    private static final int SAMPLED = 50;
+    private static final double Z2 = 1.96 * 1.96;
+    /** Upper Wilson bound when none of the 50 sampled files fails. */
+    private static final double WILSON_HIGH_NONE_OF_50 = Z2 / (SAMPLED + Z2);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void boundsAreWilsonIntervalWhenNoSampledFileFails() throws Exception {
+        String[] overall = overallRow(validateSample(0.1, false, false));
+
+        assertEquals(0, Double.parseDouble(overall[2]), 1e-4);
+        assertEquals(0, Double.parseDouble(overall[3]), 1e-4);
+        assertEquals(WILSON_HIGH_NONE_OF_50, Double.parseDouble(overall[4]), 1e-4);
+        assertEquals(String.valueOf(SAMPLED), overall[5]);
+        assertEquals(String.valueOf(FILES), overall[6]);
+    }
+
+    @Test
+    public void boundsAreWilsonIntervalWhenEverySampledFileFails() throws Exception {
+        String[] overall = overallRow(validateSample(0.1, true, false));
+
+        assertEquals(1, Double.parseDouble(overall[2]), 1e-4);
+        assertEquals(1 - WILSON_HIGH_NONE_OF_50, Double.parseDouble(overall[3]), 1e-4);
+        assertEquals(1, Double.parseDouble(overall[4]), 1e-4);
+    }
+
+    @Test
+    public void censusHasNoSamplingError() throws Exception {
+        List<String> lines = validateSample(1.0, true, false);
+        String[] overall = overallRow(lines);
+
+        assertEquals(1, Double.parseDouble(overall[2]), 1e-4);
+        assertEquals(1, Double.parseDouble(overall[3]), 1e-4);
+        assertEquals(1, Double.parseDouble(overall[4]), 1e-4);
+        assertEquals(String.valueOf(FILES), overall[5]);
+        assertEquals(String.valueOf(FILES), overall[6]);
+        assertEquals("stratum,all,1.0000,1.0000,1.0000,500,500,false,42", lines.get(2));
+        assertEquals("assertion,a-1,1.0000,1.0000,1.0000,500,500,false,42", lines.get(3));
+    }
+
+    @Test
+    public void stoppedEarlyKeepsPopulationAndOmitsIntervals() throws Exception {
+        String[] overall = overallRow(validateSample(0.1, false, true));
+
+        assertEquals("", overall[3]);
+        assertEquals("", overall[4]);
+        assertEquals(String.valueOf(FILES), overall[6]);
+        assertEquals("true", overall[7]);
+    }
+
+    /**
+     * Plans a sample of the given fraction from a source of FILES documents, validates the first half of it
+     * or all of it, and returns the lines of the summary CSV.
+     */
+    private List<String> validateSample(double fraction, boolean failing, boolean stopEarly) throws Exception {
+        XmlSource source = new NumberedSource();
+        final StratifiedSampler sampler = new StratifiedSampler(
+                new TriageOptions(0, 0, fraction, TriageOptions.STRATIFY_NONE, 42));
+        final int sampleSize = sampler.plan(source);
+        assertEquals(Math.round(FILES * fraction), sampleSize);
+
+        final int toValidate = stopEarly ? sampleSize / 2 : sampleSize;
+        final int[] validated = {0};
+        source.forEach(sampler::select, entry -> {
+            sampler.recordResult(entry, failing,
+                    failing ? Collections.singletonList("a-1") : Collections.<String>emptyList());
+            return ++validated[0] < toValidate;
+        });
+        assertEquals(toValidate, validated[0]);
+        if (stopEarly) {
+            sampler.markStoppedEarly();
+        }
+
+        File csv = temporaryFolder.newFile("sample_summary.csv");
+        sampler.writeSummaryCsv(csv.getPath());
+        List<String> lines = Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8);
+        assertEquals("level,id,estimated_rate,ci95_low,ci95_high,validated_files,population_files,stopped_early,sample_seed",
+                lines.get(0));
+        return lines;
+    }
+
+    private static String[] overallRow(List<String> lines) {
+        assertTrue(lines.get(1).startsWith("overall,failing_files,"));
+        return lines.get(1).split(",", -1);
+    }
+
+    /**
+     * A source of FILES small documents named 0.xml, 1.xml, and so on.
+     */
+    private static class NumberedSource extends XmlSource {
+        @Override
+        int count() {
+            return FILES;
+        }
+
+        @Override
+        void forEach(Predicate<XmlEntry> filter, EntryConsumer consumer) throws IOException, InterruptedException {
+            for (int i = 0; i < FILES; i++) {
+                XmlEntry entry = new XmlEntry(i + ".xml", 100) {
+                    @Override
+                    InputStream open() {
+                        return new ByteArrayInputStream("<root/>".getBytes(StandardCharsets.UTF_8));
+                    }
+                };
+                if (filter.test(entry) && !consumer.accept(entry)) {
+                    return;
+                }
+            }
+        }
+    }
+}
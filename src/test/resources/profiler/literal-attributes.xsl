@@ -0,0 +1,20 @@
+<xsl:stylesheet version="2.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform" xmlns:svrl="http://purl.oclc.org/dsdl/svrl">
+   <xsl:template match="/">
+      <svrl:schematron-output>
+         <svrl:active-pattern id="p-1" name="Pattern one"/>
+         <xsl:apply-templates select="/" mode="M1"/>
+      </svrl:schematron-output>
+   </xsl:template>
+   <xsl:template match="a" priority="1000" mode="M1">
+      <svrl:fired-rule context="a" id="r-1-errors"/>
+      <xsl:choose>
+         <xsl:when test="b"/>
+         <xsl:otherwise>
+            <svrl:failed-assert test="b" id="a-1" location="{name()}">
+               <svrl:text>b is required</svrl:text>
+            </svrl:failed-assert>
+         </xsl:otherwise>
+      </xsl:choose>
+      <xsl:apply-templates select="*" mode="M1"/>
+   </xsl:template>
+</xsl:stylesheet>
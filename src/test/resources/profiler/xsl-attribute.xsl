@@ -0,0 +1,29 @@
+<xsl:stylesheet version="2.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform" xmlns:svrl="http://purl.oclc.org/dsdl/svrl">
+   <!-- Layout of the ISO Schematron skeleton (iso_svrl_for_xslt2.xsl): IDs are written by xsl:attribute -->
+   <xsl:template match="/">
+      <svrl:schematron-output>
+         <svrl:active-pattern>
+            <xsl:attribute name="document"><xsl:value-of select="document-uri(/)"/></xsl:attribute>
+            <xsl:attribute name="id">p-1</xsl:attribute>
+            <xsl:attribute name="name">Pattern one</xsl:attribute>
+         </svrl:active-pattern>
+         <xsl:apply-templates select="/" mode="M1"/>
+      </svrl:schematron-output>
+   </xsl:template>
+   <xsl:template match="a" priority="1000" mode="M1">
+      <svrl:fired-rule context="a">
+         <xsl:attribute name="id">r-1-errors</xsl:attribute>
+      </svrl:fired-rule>
+      <xsl:choose>
+         <xsl:when test="b"/>
+         <xsl:otherwise>
+            <svrl:failed-assert test="b">
+               <xsl:attribute name="id"><xsl:value-of select="'a-1'"/></xsl:attribute>
+               <xsl:attribute name="location"><xsl:value-of select="name()"/></xsl:attribute>
+               <svrl:text>b is required</svrl:text>
+            </svrl:failed-assert>
+         </xsl:otherwise>
+      </xsl:choose>
+      <xsl:apply-templates select="*" mode="M1"/>
+   </xsl:template>
+</xsl:stylesheet>